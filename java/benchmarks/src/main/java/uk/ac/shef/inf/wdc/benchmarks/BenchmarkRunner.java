@@ -0,0 +1,22 @@
+package uk.ac.shef.inf.wdc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the usual JMH command line (java -jar target/benchmarks.jar -h), adding the gc profiler
+ * unless another profiler is given, so that bytes allocated per op (gc.alloc.rate.norm) are reported next to
+ * ops/sec. E.g., java -jar target/benchmarks.jar TextCleaning
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-prof") && !jmhArgs.contains("-h") && !jmhArgs.contains("-l")) {
+            jmhArgs.add("-prof");
+            jmhArgs.add("gc");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
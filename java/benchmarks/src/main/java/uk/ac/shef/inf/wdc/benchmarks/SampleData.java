@@ -0,0 +1,54 @@
+package uk.ac.shef.inf.wdc.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the sample data of the benchmarks: WDC table rows (json lines, Product class, with English and non English rows,
+ * and rows from hosts the indexer filters out), product names and product descriptions.
+ * <p>
+ * They are read from the folder given by the system property 'samples' if set (forked benchmark JVMs need it too,
+ * e.g., java -jar target/benchmarks.jar -jvmArgsAppend -Dsamples=/data/samples), otherwise from those bundled in
+ * /samples. SampleExtractor writes them from a Product zip file of the WDC tables; the figures are only
+ * representative with such an extract of a few thousand rows.
+ */
+public class SampleData {
+
+    public static final String TABLE_ROWS = "/samples/wdc_table_rows.json";
+    public static final String PRODUCT_NAMES = "/samples/product_names.txt";
+    public static final String PRODUCT_DESCRIPTIONS = "/samples/product_descriptions.txt";
+
+    public static List<String> lines(String resource) {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(resource),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    private static InputStream open(String resource) throws IOException {
+        String folder = System.getProperty("samples");
+        if (folder != null)
+            return new FileInputStream(new File(folder, SampleExtractor.fileName(resource)));
+        InputStream in = SampleData.class.getResourceAsStream(resource);
+        if (in == null)
+            throw new FileNotFoundException("no bundled sample " + resource);
+        return in;
+    }
+}
@@ -0,0 +1,89 @@
+package uk.ac.shef.inf.wdc.benchmarks;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes the samples of the benchmarks (see SampleData) from a zip file of the WDC tables of the Product class, e.g.,
+ * Product_top100.zip of http://webdatacommons.org/structureddata/schemaorgtables/. The rows are the first ones of
+ * every gz entry, about as many from each, so the sample has the mix of hosts (including those the indexer filters
+ * out) and languages of the zip file; the names and descriptions are those of these rows.
+ * <p>
+ * args[0]: the zip file, args[1]: the out folder (src/main/resources/samples to replace the bundled samples),
+ * args[2] (optional): the number of rows, 5000 by default
+ */
+public class SampleExtractor {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        File outFolder = new File(args[1]);
+        outFolder.mkdirs();
+
+        List<String> lines = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> descriptions = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(args[0])) {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            for (int i = 0; i < entries.size() && lines.size() < rows; i++) {
+                ZipEntry entry = entries.get(i);
+                //an even share of the rows still to take, so the rows short entries lack are taken from the next ones
+                int left = entries.size() - i;
+                int perEntry = (rows - lines.size() + left - 1) / left;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(zip.getInputStream(entry)), StandardCharsets.UTF_8))) {
+                    String line;
+                    int taken = 0;
+                    while (taken < perEntry && lines.size() < rows && (line = reader.readLine()) != null) {
+                        JSONObject json;
+                        try {
+                            json = new JSONObject(line);
+                        } catch (JSONException e) {
+                            continue;
+                        }
+                        lines.add(line);
+                        taken++;
+                        if (json.opt("name") instanceof String)
+                            names.add(oneLine(json.getString("name")));
+                        if (json.opt("description") instanceof String)
+                            descriptions.add(oneLine(json.getString("description")));
+                    }
+                }
+            }
+        }
+
+        write(new File(outFolder, fileName(SampleData.TABLE_ROWS)), lines);
+        write(new File(outFolder, fileName(SampleData.PRODUCT_NAMES)), names);
+        write(new File(outFolder, fileName(SampleData.PRODUCT_DESCRIPTIONS)), descriptions);
+        System.out.println(String.format("Wrote %d rows, %d names, %d descriptions to %s",
+                lines.size(), names.size(), descriptions.size(), outFolder));
+    }
+
+    static String fileName(String resource) {
+        return resource.substring(resource.lastIndexOf('/') + 1);
+    }
+
+    //the samples are read line by line
+    private static String oneLine(String s) {
+        return s.replaceAll("\\s+", " ").trim();
+    }
+
+    private static void write(File file, List<String> lines) throws IOException {
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (String l : lines) {
+                if (l.isEmpty())
+                    continue;
+                w.write(l);
+                w.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.shef.inf.wdc.benchmarks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.shef.inf.wdc.indexing.WDCTableRowParser;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the filters the table indexer applies to every row of the WDC tables. One op handles one row of the sample, the
+ * next one at every call
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableRowBenchmark {
+
+    private List<String> rows;
+    private List<String> hosts = new ArrayList<>();
+    //the text values of each row, as given to the language check by WDCTableRowParser
+    private List<Set<String>> texts = new ArrayList<>();
+    private WDCTableRowParser rowParser;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        rowParser = new WDCTableRowParser();
+        rows = SampleData.lines(SampleData.TABLE_ROWS);
+        for (String row : rows) {
+            JSONObject json = new JSONObject(row);
+            hosts.add(host(json.optString("page_url")));
+            Set<String> values = new HashSet<>();
+            for (String k : json.keySet()) {
+                if (json.get(k) instanceof String && !k.equals("page_url"))
+                    values.add(json.getString(k));
+            }
+            texts.add(values);
+        }
+    }
+
+    //as WDCTableRowParser, which leaves the host out for the urls of real rows it cannot parse
+    private static String host(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return host == null ? "" : host;
+        } catch (URISyntaxException e) {
+            return "";
+        }
+    }
+
+    private int next() {
+        next = next + 1 < rows.size() ? next + 1 : 0;
+        return next;
+    }
+
+    @Benchmark
+    public boolean isEnglish() {
+        return rowParser.isEnglish(texts.get(next()));
+    }
+
+    @Benchmark
+    public boolean isInvalidHost() {
+        return WDCTableRowParser.isInvalidHost(hosts.get(next()));
+    }
+
+    @Benchmark
+    public SolrInputDocument parse() {
+        int i = next();
+        return rowParser.parse(rows.get(i), "doc", i, "Product", "top100", "sample.json.gz");
+    }
+}
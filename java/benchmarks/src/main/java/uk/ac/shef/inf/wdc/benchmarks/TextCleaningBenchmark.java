@@ -0,0 +1,57 @@
+package uk.ac.shef.inf.wdc.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.shef.inf.wdc.Util;
+import uk.ac.shef.inf.wdc.exporting.ProdDescTextFileExporter_Lucene;
+import uk.ac.shef.inf.wdc.indexing.ProdCatDescIndexCreator;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the cleaning of product names and descriptions done by the indexers and exporters. One op cleans one value of the
+ * sample, the next one at every call
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextCleaningBenchmark {
+
+    private List<String> names;
+    private List<String> descriptions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        names = SampleData.lines(SampleData.PRODUCT_NAMES);
+        descriptions = SampleData.lines(SampleData.PRODUCT_DESCRIPTIONS);
+    }
+
+    private String next(List<String> values) {
+        next = next + 1 < values.size() ? next + 1 : 0;
+        return values.get(next);
+    }
+
+    @Benchmark
+    public String cleanDesc() {
+        return Util.cleanDesc(next(descriptions), true);
+    }
+
+    @Benchmark
+    public String cleanName() {
+        return ProdCatDescIndexCreator.cleanName(next(names));
+    }
+
+    @Benchmark
+    public String cleanDataName() {
+        return ProdDescTextFileExporter_Lucene.cleanData(next(names));
+    }
+
+    @Benchmark
+    public String cleanDataDescription() {
+        return ProdDescTextFileExporter_Lucene.cleanData(next(descriptions));
+    }
+}
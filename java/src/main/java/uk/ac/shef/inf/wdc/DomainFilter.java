@@ -0,0 +1,144 @@
+package uk.ac.shef.inf.wdc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Matches hosts against a list of domains, compiled into a trie of reversed labels (e.g., 'co.uk' is stored as
+ * uk -> co) so a lookup costs one step per label of the host, whatever the size of the list.
+ * <p>
+ * Entries are given one per line (in a file, empty lines and lines starting with # are ignored):
+ * <ul>
+ * <li>'de' or '.de' matches hosts ending with '.de', 'co.uk' hosts ending with '.co.uk'</li>
+ * <li>'de.' matches hosts starting with 'de.', i.e., whose first label is 'de' (e.g., language sub domains)</li>
+ * </ul>
+ * The lists used by the indexers and exporters are defined below, each can be replaced by a file given as a system
+ * property (e.g., -Dwdc.domains.nonenglish=/path/to/file).
+ */
+public class DomainFilter {
+
+    private static final List<String> nonEnglishTLDs = Arrays.asList("ru", "rs", "gr", "pl", "md", "fr",
+            "ro", "dk", "ua", "at", "bg", "tw", "by", "hk", "it", "jp", "no", "lt", "hu",
+            "ch", "ir", "kz", "mx", "su", "br",
+            "cz", "ee", "sk", "si", "be", "de", "es", "cn",
+            "fi", "eu", "co", "cymru", "cy", "ge", "vn", "ar", "mk", "id", "ec", "tr",
+            "fm", "ba", "se", "kr", "il", "cl", "pe", "pk", "ps", "pt", "mt", "tv", "hr", "lu", "lv",
+            "gt", "sv", "me", "ae");//nl - netherland, sometimes ok
+
+    /**
+     * hosts of non English speaking countries, by their TLD or their first label (WDC table indexer)
+     */
+    public static final DomainFilter NON_ENGLISH = configured("wdc.domains.nonenglish",
+            withFirstLabels(nonEnglishTLDs));
+
+    /**
+     * hosts of non English speaking countries, by their TLD (ProdDescExporter_Filter_Lucene)
+     */
+    public static final DomainFilter NON_ENGLISH_EXPORT = configured("wdc.domains.nonenglish.export",
+            Arrays.asList("ru", "rs", "gr", "pl", "md", "fr",
+                    "ro", "dk", "ua", "at", "bg", "tw", "by", "hk", "it", "jp", "in", "no", "lt", "hu",
+                    "ch", "ir", "kz", "mx", "su", "br",
+                    "cz", "ee", "sk", "si", "be", "de", "nl", "es"));
+
+    /**
+     * hosts of English speaking countries, by their TLD (ProdCatDescIndexCreator, ProdNameCategoryTextFileExporter)
+     */
+    public static final DomainFilter ENGLISH_SPEAKING = configured("wdc.domains.english",
+            Arrays.asList("uk", "com", "net", "org", "au", "ag",
+                    "bs", "bb", "ca", "do", "gd", "gy", "ie", "jm", "nz", "kn", "lc", "vc", "tt", "us"));
+
+    private final Node suffixes = new Node();
+    private final Set<String> firstLabels = new HashSet<>();
+
+    public DomainFilter(Collection<String> entries) {
+        for (String e : entries) {
+            e = e.trim().toLowerCase();
+            if (e.isEmpty() || e.startsWith("#"))
+                continue;
+            if (e.endsWith(".")) {
+                firstLabels.add(e.substring(0, e.length() - 1));
+                continue;
+            }
+            if (e.startsWith("."))
+                e = e.substring(1);
+            Node node = suffixes;
+            String[] labels = e.split("\\.");
+            for (int i = labels.length - 1; i >= 0; i--)
+                node = node.children.computeIfAbsent(labels[i], k -> new Node());
+            node.terminal = true;
+        }
+    }
+
+    public static DomainFilter fromFile(String file) throws IOException {
+        return new DomainFilter(Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the filter read from the file named by the system property if it is set, otherwise the one of the
+     * default entries
+     */
+    public static DomainFilter configured(String property, Collection<String> defaults) {
+        String file = System.getProperty(property);
+        if (file == null)
+            return new DomainFilter(defaults);
+        try {
+            return fromFile(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to read the domains of " + property + " from " + file, e);
+        }
+    }
+
+    /**
+     * @return the domains both as suffixes and first labels
+     */
+    public static List<String> withFirstLabels(Collection<String> domains) {
+        List<String> entries = new ArrayList<>(domains);
+        for (String d : domains)
+            entries.add(d + ".");
+        return entries;
+    }
+
+    /**
+     * @return true if the host ends with one of the suffixes, or starts with one of the first labels
+     */
+    public boolean matches(String host) {
+        return matchesSuffix(host) || matchesFirstLabel(host);
+    }
+
+    /**
+     * @return true if the host ends with one of the suffixes (same as host.endsWith("." + suffix))
+     */
+    public boolean matchesSuffix(String host) {
+        Node node = suffixes;
+        int end = host.length();
+        int dot;
+        while ((dot = host.lastIndexOf('.', end - 1)) >= 0) {
+            node = node.children.get(host.substring(dot + 1, end));
+            if (node == null)
+                return false;
+            if (node.terminal)
+                return true;
+            end = dot;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the host starts with one of the first labels (same as host.startsWith(label + "."))
+     */
+    public boolean matchesFirstLabel(String host) {
+        if (firstLabels.isEmpty())
+            return false;
+        int dot = host.indexOf('.');
+        return dot >= 0 && firstLabels.contains(host.substring(0, dot));
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private boolean terminal;
+    }
+}
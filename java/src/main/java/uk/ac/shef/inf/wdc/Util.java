@@ -3,13 +3,13 @@ package uk.ac.shef.inf.wdc;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.jsoup.Jsoup;
+import uk.ac.shef.inf.wdc.text.TextNormaliser;
 
 import java.io.*;
 import java.util.*;
@@ -63,9 +63,7 @@ public class Util {
     }
 
     private static String toASCII(String in) {
-        String fold = in.replaceAll("[^\\p{ASCII}]", "").
-                replaceAll("\\s+", " ").trim();
-        return fold;
+        return TextNormaliser.instance().toASCII(in);
     }
 
     public static int replacePatterns(String in, Pattern pat){
@@ -78,10 +76,10 @@ public class Util {
         return found;
     }
 
-    private static String cleanDesc(String value, boolean lower) {
+    public static String cleanDesc(String value, boolean lower) {
         value = Jsoup.parse(value).text();
         try {
-            value = StringEscapeUtils.unescapeJava(value);
+            value = TextNormaliser.unescapeJava(value);
             if (lower)
                 value=value.toLowerCase();
         }catch (Exception e){
@@ -91,15 +89,14 @@ public class Util {
         //String asciiValue = toASCII("M5 x 35mm Full Thread Hexagon Bolts (DIN 933) - PEEK DescriptionThe M5 x 35mm Full Thread Hexagon Bolts (DIN 933) - PEEK has the following features:M5 (5mm) Thread Size (T)DIN 933 Manufacturing Standard35mm Length (L)Yes Fully ThreadedPEEK MaterialPEEK Thermoplastic Material Specification0.8mm Pitch3.6mm Head Length (K)8mm Head Width A/F (H)Self Colour Finish+/- 0.13mm General Tolerance");
         String asciiValue = toASCII(value);
 
-        String alphanumeric = asciiValue.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}:,.;]", " ").
-                replaceAll("\\s+", " ").trim();
+        String alphanumeric = TextNormaliser.instance().keepAlphanumeric(asciiValue, ":,.;");
         //value= StringUtils.stripAccents(value);
 
         int nums = replacePatterns(alphanumeric,numericP);
         int an= replacePatterns(alphanumeric, alphanumP);
 
-        String alphanumeric_clean = alphanumeric.replaceAll(alphanum,"LETTERNUMBER");
-        alphanumeric_clean = alphanumeric_clean.replaceAll(numeric,"NUMBER");
+        String alphanumeric_clean = alphanumP.matcher(alphanumeric).replaceAll("LETTERNUMBER");
+        alphanumeric_clean = numericP.matcher(alphanumeric_clean).replaceAll("NUMBER");
 
 
         List<String> normTokens = Arrays.asList(alphanumeric_clean.split("\\s+"));
@@ -157,11 +154,10 @@ public class Util {
                 continue;
             }
             n=n.toLowerCase();
-            String alphanumeric = n.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}:,.;]", " ").
-                    replaceAll("\\s+", " ").trim();
+            String alphanumeric = TextNormaliser.instance().keepAlphanumeric(n, ":,.;");
 
-            String alphanumeric_clean = alphanumeric.replaceAll(alphanum,"LETTERNUMBER");
-            alphanumeric_clean = alphanumeric_clean.replaceAll(numeric,"NUMBER");
+            String alphanumeric_clean = alphanumP.matcher(alphanumeric).replaceAll("LETTERNUMBER");
+            alphanumeric_clean = numericP.matcher(alphanumeric_clean).replaceAll("NUMBER");
 
             StringBuilder sb = new StringBuilder();
             for (String v : alphanumeric_clean.split("\\s+")){
@@ -213,11 +209,10 @@ public class Util {
                 }
                 String n=nextRecord[nameCol];
                 n=n.toLowerCase();
-                String alphanumeric = n.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}:,.;]", " ").
-                        replaceAll("\\s+", " ").trim();
+                String alphanumeric = TextNormaliser.instance().keepAlphanumeric(n, ":,.;");
 
-                String alphanumeric_clean = alphanumeric.replaceAll(alphanum,"LETTERNUMBER");
-                alphanumeric_clean = alphanumeric_clean.replaceAll(numeric,"NUMBER");
+                String alphanumeric_clean = alphanumP.matcher(alphanumeric).replaceAll("LETTERNUMBER");
+                alphanumeric_clean = numericP.matcher(alphanumeric_clean).replaceAll("NUMBER");
 
                 if (alphanumeric_clean.length()==0) {
                     nextRecord[descCol]="";
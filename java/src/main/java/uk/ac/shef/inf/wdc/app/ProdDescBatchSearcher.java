@@ -0,0 +1,136 @@
+package uk.ac.shef.inf.wdc.app;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.QueryBuilder;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Searches a product desc index for many product names at once, straight from the SolrIndexSearcher of the core
+ * instead of one solr request per name. The names of a batch are turned into queries by the same QueryBuilder (the
+ * terms of the name, as analysed by the query analyzer of the field, as SHOULD clauses, which is what the 'field:name'
+ * query of the solr request gives), each is run for its TopDocs, and the hits are returned ranked, per name.
+ * <p>
+ * The stored fields of a hit are only read when first asked for, and only those asked for: {@link Hit#get} reads
+ * the one field, {@link Hit#load()} all the stored fields given to the searcher in one read. So a hit the caller
+ * only needs a field of (e.g., the name of a document already selected for another name) does not read the others.
+ * <p>
+ * Thread safe: threads can search their own batches at the same time with one instance.
+ */
+public class ProdDescBatchSearcher {
+
+    private static final Logger LOG = Logger.getLogger(ProdDescBatchSearcher.class.getName());
+
+    private final SolrIndexSearcher searcher;
+    private final String field;
+    private final int rows;
+    private final Set<String> storedFields;
+    private final QueryBuilder queryBuilder;
+
+    /**
+     * @param field        field searched for the names
+     * @param rows         hits returned per name
+     * @param storedFields stored fields read for a hit by {@link Hit#load()}
+     */
+    public ProdDescBatchSearcher(SolrIndexSearcher searcher, String field, int rows, String... storedFields) {
+        this.searcher = searcher;
+        this.field = field;
+        this.rows = rows;
+        this.storedFields = new HashSet<>(Arrays.asList(storedFields));
+        this.queryBuilder = new QueryBuilder(searcher.getSchema().getQueryAnalyzer());
+    }
+
+    /**
+     * @return the ranked hits of every name, in the order of the names; no hits for a name that has no term or whose
+     * search failed
+     */
+    public List<List<Hit>> search(List<String> names) {
+        List<List<Hit>> results = new ArrayList<>(names.size());
+        for (String name : names) {
+            List<Hit> hits = Collections.emptyList();
+            try {
+                Query q = queryBuilder.createBooleanQuery(field, name, BooleanClause.Occur.SHOULD);
+                if (q != null) {
+                    TopDocs top = searcher.search(q, rows);
+                    hits = new ArrayList<>(top.scoreDocs.length);
+                    for (ScoreDoc sd : top.scoreDocs)
+                        hits.add(new Hit(sd.doc, sd.score));
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.warn(String.format("\t\t\t error encountered searching for %s, skipped: %s",
+                        name, ExceptionUtils.getFullStackTrace(e)));
+            }
+            results.add(hits);
+        }
+        return results;
+    }
+
+    /**
+     * a document found for a name, whose stored fields are read on first use
+     */
+    public class Hit {
+        private final int doc;
+        private final float score;
+        //the stored fields read so far, and their names (also of those the document does not have)
+        private Document fields;
+        private Set<String> read;
+
+        private Hit(int doc, float score) {
+            this.doc = doc;
+            this.score = score;
+        }
+
+        /**
+         * @return the Lucene doc number, the same for the same document whichever name found it
+         */
+        public int getDoc() {
+            return doc;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        /**
+         * @return the value of the stored field, or null if the document has none. Only this field is read, unless
+         * it was read already
+         */
+        public String get(String name) throws IOException {
+            if (read == null || !read.contains(name))
+                read(Collections.singleton(name));
+            return fields.get(name);
+        }
+
+        /**
+         * reads the stored fields given to the searcher not read yet, in one read
+         */
+        public void load() throws IOException {
+            Set<String> names = new HashSet<>(storedFields);
+            if (read != null)
+                names.removeAll(read);
+            if (!names.isEmpty())
+                read(names);
+        }
+
+        private void read(Set<String> names) throws IOException {
+            Document d = searcher.doc(doc, names);
+            if (fields == null) {
+                fields = d;
+                read = new HashSet<>(names);
+                return;
+            }
+            for (IndexableField f : d)
+                fields.add(f);
+            read.addAll(names);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package uk.ac.shef.inf.wdc.app;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import uk.ac.shef.inf.wdc.exporting.ProdDescTextFileExporter_Lucene;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the same corpus as ProdDescCorpusForBert_Join, with the names searched in batches by a
+ * ProdDescBatchSearcher over the searcher of the core rather than one solr request each. Threads take the next batch
+ * of names as they finish one, so none sits idle while another still has a long list to go.
+ * <p>
+ * A document is only selected once over all names, and a hit passing the filters counts towards the max results of a
+ * name even if it was already selected (for this or another name), as in ProdDescCorpusForBert_Join. Hits with no
+ * desc are skipped, where ProdDescCorpusForBert_Join gives up on the name. As a document already selected passed the
+ * desc filters, only its name is read (for the same name check) before it is counted, not its desc.
+ * <p>
+ * Threads take their batches from the input file as it is read (see ProdDescNameSource). With a sample below 1, each
+ * name is kept with that probability.
+ * <p>
+ * Same arguments as ProdDescCorpusForBert_Thread, args[6] being the number of threads. Descriptions are written to
+ * [outFolder]/[maxResult]/thread[i]_[dataset].txt, or [outFolder]/ranked/thread[i]_[dataset].ranked.tsv with the
+ * ranked output (args[8], see ProdDescRankedOutput)
+ */
+public class ProdDescCorpusForBert_Batch {
+
+    private static final Logger LOG = Logger.getLogger(ProdDescCorpusForBert_Batch.class.getName());
+
+    private static final int ROWS = 200;
+    private static final int BATCH_NAMES = 500;
+
+    private ProdDescBatchSearcher searcher;
+    //Lucene doc numbers of the documents selected so far
+    private ProdDescCorpusForBert_ConcurrentSet allSelected = new ProdDescCorpusForBert_ConcurrentSet();
+
+    public ProdDescCorpusForBert_Batch(ProdDescBatchSearcher searcher) {
+        this.searcher = searcher;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CoreContainer prodNDContainer = new CoreContainer(args[0]);
+        prodNDContainer.load();
+        SolrCore core = prodNDContainer.getCore("prodcatdesc");
+        RefCounted<SolrIndexSearcher> solrIndexSearcher = core.getSearcher();
+
+        String[] maxResults = args[1].split(",");//max number of products to select for composing desc
+
+        String inFile = args[2];
+        String nameCol = args[3];
+        String outFolder = args[4];
+        String dataset = args[5];
+
+        int threads = Integer.valueOf(args[6]);
+        double sample = 1.0;
+        if (args.length > 7)
+            sample = Double.valueOf(args[7]);
+        String output = args.length > 8 ? args[8] : ProdDescRankedOutput.TEXT;
+
+        ProdDescCorpusForBert_Batch corpus = new ProdDescCorpusForBert_Batch(
+                new ProdDescBatchSearcher(solrIndexSearcher.get(), "desc", ROWS, "name", "desc"));
+        ProdDescNameSource source = new ProdDescNameSource(inFile, dataset, nameCol);
+        AtomicInteger done = new AtomicInteger();
+        System.out.println(new Date() + "\tProcessing data...");
+        if (sample < 1.0)
+            System.out.println("Processing only sample size=" + sample);
+        double keep = sample;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            int threadID = i;
+            executor.execute(() -> {
+                try {
+                    corpus.run(threadID, source, keep, done, outFolder, maxResults, dataset, output);
+                } catch (IOException e) {
+                    LOG.warn(String.format("<<THREAD %d>> stopped: %s", threadID, ExceptionUtils.getFullStackTrace(e)));
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        source.close();
+        System.out.println("Total records=" + done.get());
+        System.out.println("Total unique allSelected=" + corpus.allSelected.size());
+
+        solrIndexSearcher.decref();
+        core.close();
+        prodNDContainer.shutdown();
+        LOG.info("COMPLETE!");
+        System.exit(0);
+    }
+
+    /**
+     * expands batches of names until there are none left, writing to the files of this thread
+     */
+    private void run(int threadID, ProdDescNameSource source, double sample, AtomicInteger done,
+                     String outFolder, String[] maxResults, String dataset, String output) throws IOException {
+        Set<Integer> cutoffs = new HashSet<>();
+        for (String maxR : maxResults)
+            cutoffs.add(Integer.valueOf(maxR));
+        ProdDescRankedOutput ranked =
+                ProdDescRankedOutput.open(outFolder, "thread" + threadID + "_" + dataset, output);
+        Map<Integer, OutputStreamWriter> writers = new HashMap<>();
+        if (ranked == null) {
+            for (String maxR : maxResults) {
+                String outDir = outFolder + "/" + maxR;
+                new File(outDir).mkdirs();
+                writers.put(Integer.valueOf(maxR), new OutputStreamWriter(
+                        new FileOutputStream(outDir + "/thread" + threadID + "_" + dataset + ".txt"),
+                        StandardCharsets.UTF_8));
+            }
+        }
+        Random random = new Random();
+        List<String> batch = new ArrayList<>(BATCH_NAMES);
+        try {
+            while (true) {
+                batch.clear();
+                String name;
+                while (batch.size() < BATCH_NAMES && (name = source.next()) != null) {
+                    if (sample >= 1.0 || random.nextDouble() < sample)
+                        batch.add(name);
+                }
+                if (batch.isEmpty())
+                    break;
+                List<List<ProdDescBatchSearcher.Hit>> hits = searcher.search(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    expand(batch.get(i), hits.get(i), cutoffs, ranked == null ? writers : null, ranked);
+                    int n = done.incrementAndGet();
+                    if (n % 1000 == 0)
+                        System.out.println(new Date() + " \t done " + n);
+                }
+            }
+        } finally {
+            if (ranked != null)
+                ranked.close();
+            for (OutputStreamWriter w : writers.values())
+                w.close();
+        }
+    }
+
+    /**
+     * selects the descriptions of the hits of a name, with the filters of ProdDescCorpusForBert_Join
+     *
+     * @param maxR_and_writers writers of the max results, or null if the descriptions only go to 'ranked'
+     * @param ranked           if not null, the selected descriptions are written to it once, with their rank
+     * @return number of descriptions selected
+     */
+    int expand(String productName, List<ProdDescBatchSearcher.Hit> hits, Set<Integer> cutoffs,
+               Map<Integer, OutputStreamWriter> maxR_and_writers, ProdDescRankedOutput ranked) throws IOException {
+        Set<Integer> maxRs = new HashSet<>(cutoffs);
+        List<String> selected = new ArrayList<>();
+        List<Integer> ranks = new ArrayList<>();
+        int countResults = 0;
+        for (ProdDescBatchSearcher.Hit hit : hits) {
+            if (maxRs.size() == 0)
+                break;
+
+            //a document already selected passed the desc filters, so only its name is read, to count it
+            boolean wasSelected = allSelected.contains(hit.getDoc());
+            if (!wasSelected)
+                hit.load();
+            String name = hit.get("name");
+            if (name != null) {
+                name = name.replaceAll("\\s+", " ").trim();
+                if (name.equalsIgnoreCase(productName))
+                    continue;
+            }
+            if (wasSelected) {
+                countResults++;
+            } else {
+                String vdesc = hit.get("desc");
+                if (vdesc == null)
+                    continue;
+                vdesc = ProdDescTextFileExporter_Lucene.cleanData(vdesc);
+                String[] tokens = vdesc.split("\\s+");
+                if (vdesc.length() > 20 && tokens.length >= ProdDescTextFileExporter_Lucene.MIN_DESC_WORDS
+                        && vdesc.length() < ProdDescTextFileExporter_Lucene.MAX_DESC_WORDS * 10) {
+                    if (tokens.length > ProdDescTextFileExporter_Lucene.MAX_DESC_WORDS)
+                        vdesc = StringUtils.join(tokens, " ", 0, ProdDescTextFileExporter_Lucene.MAX_DESC_WORDS);
+
+                    countResults++;
+                    //counted whether or not another name selected it meanwhile, as in ProdDescCorpusForBert_Join
+                    if (allSelected.addIfAbsent(hit.getDoc())) {
+                        selected.add(vdesc);
+                        ranks.add(countResults);
+                    }
+                }
+            }
+
+            //check if we should dump for any 'max Results' writer
+            int finish_maxR = -1;
+            for (int mr : maxRs) {
+                if (countResults >= mr) {
+                    finish_maxR = mr;
+                    if (maxR_and_writers == null)
+                        continue;
+                    OutputStreamWriter writer = maxR_and_writers.get(mr);
+                    for (String description : selected)
+                        writer.write(description + "\n");
+                }
+            }
+            maxRs.remove(finish_maxR);
+        }
+        if (ranked != null)
+            ranked.write(selected, ranks, countResults);
+        return selected.size();
+    }
+}
@@ -1,17 +1,176 @@
 package uk.ac.shef.inf.wdc.app;
 
-import java.util.HashSet;
-import java.util.Set;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The documents selected so far by all the threads building a corpus, keyed on a long: the Lucene doc number, or a
+ * 64 bit hash of the solr id (a collision, i.e., two ids taken for the same, is unlikely below billions of ids).
+ * <p>
+ * The keys are spread over segments, each an open-addressing table of longs in which keys are inserted with a
+ * compare-and-set, so threads adding at the same time do not wait for each other and {@link #addIfAbsent(long)} is
+ * atomic. A segment is only locked (exclusively) to grow its table; adding and looking up take its read lock, which
+ * is shared. A key takes 8 to 16 bytes.
+ */
 class ProdDescCorpusForBert_ConcurrentSet {
 
-    private Set<String> results=new HashSet<>();
+    private static final HashFunction ID_HASH = Hashing.murmur3_128();
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    //0 marks a free slot, so the key 0 is kept aside
+    private final AtomicBoolean zero = new AtomicBoolean();
+
+    ProdDescCorpusForBert_ConcurrentSet() {
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment();
+    }
+
+    /**
+     * @return true if the key was added, false if it was there already
+     */
+    public boolean addIfAbsent(long key) {
+        if (key == 0)
+            return zero.compareAndSet(false, true);
+        long h = mix(key);
+        return segments[(int) (h >>> 58)].addIfAbsent(key, h);
+    }
+
+    public boolean contains(long key) {
+        if (key == 0)
+            return zero.get();
+        long h = mix(key);
+        return segments[(int) (h >>> 58)].contains(key, h);
+    }
+
+    /**
+     * @return true if the document of this solr id was added, false if it was there already
+     */
+    public boolean addIfAbsent(String id) {
+        return addIfAbsent(hash(id));
+    }
+
+    public void add(String id) {
+        addIfAbsent(id);
+    }
+
+    public boolean contains(String id) {
+        return contains(hash(id));
+    }
 
-    public synchronized void add(String v){
-        results.add(v);
+    public long size() {
+        long size = zero.get() ? 1 : 0;
+        for (Segment s : segments)
+            size += s.count.get();
+        return size;
     }
 
-    public synchronized boolean contains(String v){
-        return results.contains(v);
+    static long hash(String id) {
+        return ID_HASH.hashString(id, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * spreads the bits of the key (doc numbers are dense), from the finaliser of murmur3
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static class Segment {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile AtomicLongArray table = new AtomicLongArray(INITIAL_CAPACITY);
+        private final AtomicInteger count = new AtomicInteger();
+
+        private boolean addIfAbsent(long key, long h) {
+            while (true) {
+                int added;
+                lock.readLock().lock();
+                try {
+                    added = insert(table, key, h);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (added == 0)
+                    return false;
+                if (added > 0) {
+                    if (count.incrementAndGet() > table.length() / 4 * 3)
+                        grow();
+                    return true;
+                }
+                //the table is full: grow it and try again
+                grow();
+            }
+        }
+
+        private boolean contains(long key, long h) {
+            lock.readLock().lock();
+            try {
+                AtomicLongArray t = table;
+                int mask = t.length() - 1;
+                for (int i = (int) h & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                    long v = t.get(i);
+                    if (v == key)
+                        return true;
+                    if (v == 0)
+                        return false;
+                }
+                return false;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return 1 if added, 0 if already there, -1 if the table is full
+         */
+        private static int insert(AtomicLongArray t, long key, long h) {
+            int mask = t.length() - 1;
+            int i = (int) h & mask;
+            for (int probes = 0; probes <= mask; ) {
+                long v = t.get(i);
+                if (v == key)
+                    return 0;
+                if (v == 0) {
+                    if (t.compareAndSet(i, 0, key))
+                        return 1;
+                    //taken meanwhile, by this key or another: look at the slot again
+                    continue;
+                }
+                i = (i + 1) & mask;
+                probes++;
+            }
+            return -1;
+        }
+
+        private void grow() {
+            lock.writeLock().lock();
+            try {
+                AtomicLongArray old = table;
+                //another thread grew it already
+                if (count.get() <= old.length() / 4 * 3 && count.get() < old.length())
+                    return;
+                AtomicLongArray bigger = new AtomicLongArray(old.length() * 2);
+                for (int i = 0; i < old.length(); i++) {
+                    long v = old.get(i);
+                    if (v != 0)
+                        insert(bigger, v, mix(v));
+                }
+                table = bigger;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
     }
 }
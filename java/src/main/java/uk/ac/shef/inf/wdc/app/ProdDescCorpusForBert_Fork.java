@@ -1,17 +1,12 @@
 package uk.ac.shef.inf.wdc.app;
 
-import com.google.gson.Gson;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.core.CoreContainer;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
 
@@ -70,111 +65,6 @@ public class ProdDescCorpusForBert_Fork {
 
     private static List<String> readTasks(String inFile, String dataset,
                                           String nameCol) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), StandardCharsets.UTF_8));
-        Gson googleJson = new Gson();
-        String line;
-        int countRecords = 0;
-        List<String> allRecords = new ArrayList<>();
-        while ((line = br.readLine()) != null) {
-               /* if (countRecords>=114)
-                    System.out.println();*/
-            Map rowValues;
-            if (dataset.equalsIgnoreCase("mwpd"))
-                rowValues = readMPWDLine(line, googleJson);
-            else if (dataset.equalsIgnoreCase("wdc"))
-                rowValues = readWDCLine(line, googleJson);
-            else if (dataset.equalsIgnoreCase("icecat"))
-                rowValues = readIceCatLine(line, googleJson);
-            else
-                rowValues = readRakutenLine(line);
-
-            //List row_values = (ArrayList) row;
-            String name = (String) rowValues.get(nameCol);
-            if (name == null || name.length() == 0) {
-                System.err.println("Line " + countRecords + " has no name, skip");
-                continue;
-            }
-            if (name.endsWith("-"))
-                name = name.substring(0, name.length() - 1).trim();
-            if (name.length() == 0) {
-                continue;
-            }
-
-            if (!allRecords.contains(name)) {
-                allRecords.add(name);
-                countRecords++;
-            }
-            if (countRecords%1000 ==0)
-                System.out.println(new Date()+" \t read "+countRecords+" data records");
-        }
-
-        return allRecords;
-    }
-
-    private static Map readMPWDLine(String line, Gson gson){
-        return gson.fromJson(line, Map.class);
-    }
-
-    private static Map readWDCLine(String line, Gson gson){
-        Map values = gson.fromJson(line, Map.class);
-
-        Map result=new HashMap();
-        List l = null;
-        if (values.containsKey("schema.org_properties")){
-            l=(List)values.get("schema.org_properties");
-            for (Object o : l){
-                Map m = (Map)o;
-                if (m.containsKey("/title")) {
-                    result.put("Name", trim(String.valueOf(m.get("/title"))));
-                    break;
-                }
-                if (m.containsKey("/name")) {
-                    result.put("Name", trim(String.valueOf(m.get("/name"))));
-                    break;
-                }
-            }
-
-        }
-
-        if (values.containsKey("parent_schema.org_properties")&&(!result.containsKey("Name")
-                ||String.valueOf(result.get("Name")).length()==0)) {
-            l = (List) values.get("parent_schema.org_properties");
-            for (Object o : l){
-                Map m = (Map)o;
-                if (m.containsKey("/title")) {
-                    result.put("Name", trim(String.valueOf(m.get("/title"))));
-                    break;
-                }
-                if (m.containsKey("/name")) {
-                    result.put("Name", trim(String.valueOf(m.get("/name"))));
-                    break;
-                }
-            }
-        }
-
-        return result;
-    }
-
-    private static Map readRakutenLine(String line){
-        String[] values=line.split("\\t");
-        Map res  =new HashMap();
-        res.put("Name",values[0]);
-        return res;
-    }
-
-    private static Map readIceCatLine(String line,Gson gson){
-        //Title
-        Map res = gson.fromJson(line, Map.class);
-        if (res.containsKey("Title"))
-            res.put("Name", res.get("Title"));
-        return res;
-    }
-
-    private static String trim(String v){
-        if (v.startsWith("["))
-            v=v.substring(1);
-        if (v.endsWith("]"))
-            v=v.substring(0, v.length()-1);
-        return v.trim();
+        return ProdDescNameSource.readAll(inFile, dataset, nameCol);
     }
 }
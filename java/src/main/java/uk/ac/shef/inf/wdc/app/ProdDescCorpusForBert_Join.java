@@ -169,10 +169,8 @@ public class ProdDescCorpusForBert_Join extends RecursiveTask<Integer> {
 
                     countResults++;
 
-                    if (!allSelected.contains(docid)) {
+                    if (allSelected.addIfAbsent(docid))
                         selected.add(vdesc);
-                        allSelected.add(docid);
-                    }
                 }
 
                 //check if we should dump for any 'max Results' writer
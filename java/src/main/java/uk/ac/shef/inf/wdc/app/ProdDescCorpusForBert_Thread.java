@@ -29,7 +29,6 @@
 
 package uk.ac.shef.inf.wdc.app;
 
-import com.google.gson.Gson;
 import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -48,6 +47,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ProdDescCorpusForBert_Thread implements Runnable {
 
@@ -73,11 +73,15 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
         double sample=1.0;
         if (args.length>7)
             sample=Double.valueOf(args[7]);
+        //text (default), ranked or ranked-gz, see ProdDescRankedOutput
+        String output=ProdDescRankedOutput.TEXT;
+        if (args.length>8)
+            output=args[8];
 
         ExecutorService executor = Executors.newFixedThreadPool(threads);
         for (int i = 0; i < threads; i++) {
             List<String> task = tasks.get(i);
-            Runnable exporter = new ProdDescCorpusForBert_Thread(i,
+            ProdDescCorpusForBert_Thread exporter = new ProdDescCorpusForBert_Thread(i,
                     task,
                     outFolder,
                     maxResults,
@@ -85,10 +89,14 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
                     dataset,
                     sample,
                     results);
+            exporter.setOutput(output);
             executor.execute(exporter);
         }
         executor.shutdown();
-        while (!executor.isTerminated()) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the threads to complete");
         }
 
         prodNameDescIndex.close();
@@ -105,6 +113,7 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
     private String dataset;
     private double sample;
     private ProdDescCorpusForBert_ConcurrentSet allSelected;
+    private String output = ProdDescRankedOutput.TEXT;
 
     public ProdDescCorpusForBert_Thread(int id,
                                       List<String> tasks,
@@ -124,123 +133,21 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
         this.allSelected = allSelected;
     }
 
-    private static List<List<String>> readTasks(String inFile, String dataset,
-                                          String nameCol,
-                                                int thread) throws IOException {
-
-        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), StandardCharsets.UTF_8));
-        Gson googleJson = new Gson();
-        String line;
-        int countRecords = 0;
-        int maxLines=Integer.MAX_VALUE;
-        List<String> allRecords = new ArrayList<>();
-        while ((line = br.readLine()) != null) {
-               /* if (countRecords>=114)
-                    System.out.println();*/
-            Map rowValues;
-            if (dataset.equalsIgnoreCase("mwpd"))
-                rowValues = readMPWDLine(line, googleJson);
-            else if (dataset.equalsIgnoreCase("wdc"))
-                rowValues = readWDCLine(line, googleJson);
-            else if (dataset.equalsIgnoreCase("icecat"))
-                rowValues = readIceCatLine(line, googleJson);
-            else
-                rowValues = readRakutenLine(line);
-
-            //List row_values = (ArrayList) row;
-            String name = (String) rowValues.get(nameCol);
-            if (name == null || name.length() == 0) {
-                System.err.println("Line " + countRecords + " has no name, skip");
-                continue;
-            }
-            if (name.endsWith("-"))
-                name = name.substring(0, name.length() - 1).trim();
-            if (name.length() == 0) {
-                continue;
-            }
-
-            if (!allRecords.contains(name)) {
-                allRecords.add(name);
-                countRecords++;
-            }
-            if (countRecords%1000 ==0)
-                System.out.println(new Date()+" \t read "+countRecords+" data records");
-
-            if (countRecords>=maxLines)
-                break;
-        }
+    /**
+     * @param output one of the modes of ProdDescRankedOutput
+     */
+    public void setOutput(String output) {
+        this.output = output;
+    }
 
+    static List<List<String>> readTasks(String inFile, String dataset,
+                                        String nameCol,
+                                        int thread) throws IOException {
+        List<String> allRecords = ProdDescNameSource.readAll(inFile, dataset, nameCol);
         int size = allRecords.size()/thread +1;
         return ListUtils.partition(allRecords, size);
     }
 
-    private static Map readMPWDLine(String line, Gson gson){
-        return gson.fromJson(line, Map.class);
-    }
-
-    private static Map readWDCLine(String line, Gson gson){
-        Map values = gson.fromJson(line, Map.class);
-
-        Map result=new HashMap();
-        List l = null;
-        if (values.containsKey("schema.org_properties")){
-            l=(List)values.get("schema.org_properties");
-            for (Object o : l){
-                Map m = (Map)o;
-                if (m.containsKey("/title")) {
-                    result.put("Name", trim(String.valueOf(m.get("/title"))));
-                    break;
-                }
-                if (m.containsKey("/name")) {
-                    result.put("Name", trim(String.valueOf(m.get("/name"))));
-                    break;
-                }
-            }
-
-        }
-
-        if (values.containsKey("parent_schema.org_properties")&&(!result.containsKey("Name")
-                ||String.valueOf(result.get("Name")).length()==0)) {
-            l = (List) values.get("parent_schema.org_properties");
-            for (Object o : l){
-                Map m = (Map)o;
-                if (m.containsKey("/title")) {
-                    result.put("Name", trim(String.valueOf(m.get("/title"))));
-                    break;
-                }
-                if (m.containsKey("/name")) {
-                    result.put("Name", trim(String.valueOf(m.get("/name"))));
-                    break;
-                }
-            }
-        }
-
-        return result;
-    }
-
-    private static Map readRakutenLine(String line){
-        String[] values=line.split("\\t");
-        Map res  =new HashMap();
-        res.put("Name",values[0]);
-        return res;
-    }
-
-    private static Map readIceCatLine(String line,Gson gson){
-        //Title
-        Map res = gson.fromJson(line, Map.class);
-        if (res.containsKey("Title"))
-            res.put("Name", res.get("Title"));
-        return res;
-    }
-
-    private static String trim(String v){
-        if (v.startsWith("["))
-            v=v.substring(1);
-        if (v.endsWith("]"))
-            v=v.substring(0, v.length()-1);
-        return v.trim();
-    }
-
     @Override
     public void run() {
         int total_selected=0;
@@ -264,37 +171,48 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
             int countRecords = 0;
 
             System.out.println(new Date()+"\t<<THREAD " + threadID + ">> Processing data size=" + tasks.size());
+            Set<Integer> cutoffs = new HashSet<>();
+            for (String maxR : maxResults)
+                cutoffs.add(Integer.valueOf(maxR));
             Map<Integer, OutputStreamWriter> writers = new HashMap<>();
-            for (String maxR : maxResults) {
-                String outDir = outFolder + "/" + maxR;
-                new File(outDir).mkdirs();
-
-                String outFile = outDir + "/thread" + threadID + "_" + dataset + ".txt";
-                OutputStreamWriter writer =
-                        new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8);
-                writers.put(Integer.valueOf(maxR), writer);
-            }
-
-            for (String name : tasks) {
-                if (sample_lines.size() > 0 && !sample_lines.contains(countRecords)) {
-                    countRecords++;
-                    continue;
+            ProdDescRankedOutput ranked =
+                    ProdDescRankedOutput.open(outFolder, "thread" + threadID + "_" + dataset, output);
+            try {
+                if (ranked == null) {
+                    for (String maxR : maxResults) {
+                        String outDir = outFolder + "/" + maxR;
+                        new File(outDir).mkdirs();
+
+                        String outFile = outDir + "/thread" + threadID + "_" + dataset + ".txt";
+                        OutputStreamWriter writer =
+                                new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8);
+                        writers.put(Integer.valueOf(maxR), writer);
+                    }
                 }
 
+                for (String name : tasks) {
+                    if (sample_lines.size() > 0 && !sample_lines.contains(countRecords)) {
+                        countRecords++;
+                        continue;
+                    }
 
-                //System.out.println(new Date()+"\tRead "+ name);
-                total_selected += expand(name, writers);
 
-                //System.out.println(new Date()+"\t\tProcessed "+ name);
-                //nextRecord[WOP_DESC_COL] = newDesc;
-                countRecords++;
+                    //System.out.println(new Date()+"\tRead "+ name);
+                    total_selected += expand(name, cutoffs, ranked == null ? writers : null, ranked);
 
-                if (countRecords % 100 == 0)
-                    System.out.println("<<THREAD " + threadID + ">> " + new Date() + " \t done " + countRecords);
-            }
+                    //System.out.println(new Date()+"\t\tProcessed "+ name);
+                    //nextRecord[WOP_DESC_COL] = newDesc;
+                    countRecords++;
 
-            for (OutputStreamWriter w : writers.values())
-                w.close();
+                    if (countRecords % 100 == 0)
+                        System.out.println("<<THREAD " + threadID + ">> " + new Date() + " \t done " + countRecords);
+                }
+            } finally {
+                if (ranked != null)
+                    ranked.close();
+                for (OutputStreamWriter w : writers.values())
+                    w.close();
+            }
 
             System.out.println("<<THREAD " + threadID + ">> Total records=" + countRecords);
 
@@ -306,14 +224,24 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
     /**
      * @param productName
      */
-    private int expand(String productName, Map<Integer, OutputStreamWriter> maxR_and_writers) {
-        Set<Integer> maxRs = new HashSet<>(maxR_and_writers.keySet());
+    int expand(String productName, Map<Integer, OutputStreamWriter> maxR_and_writers) {
+        return expand(productName, maxR_and_writers.keySet(), maxR_and_writers, null);
+    }
+
+    /**
+     * @param maxR_and_writers writers of the max results, or null if the descriptions only go to 'ranked'
+     * @param ranked           if not null, the selected descriptions are written to it once, with their rank
+     */
+    int expand(String productName, Set<Integer> cutoffs, Map<Integer, OutputStreamWriter> maxR_and_writers,
+               ProdDescRankedOutput ranked) {
+        Set<Integer> maxRs = new HashSet<>(cutoffs);
         //Set<Integer> maxRs = new HashSet<>();
 
         SolrQuery q = createQuery(200, productName);
         QueryResponse res;
         long total = 0;
         List<String> selected = new ArrayList<>();
+        List<Integer> ranks = new ArrayList<>();
 
         try {
             res = prodNameDescIndex.query(q);
@@ -353,6 +281,7 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
 
                     //allowing selecting multiple times of the same doc
                     selected.add(vdesc);
+                    ranks.add(countResults);
                     allSelected.add(docid);
                 }
 
@@ -361,6 +290,8 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
                 for (int mr : maxRs) {
                     if (countResults >= mr) {
                         finish_maxR = mr;
+                        if (maxR_and_writers == null)
+                            continue;
                         OutputStreamWriter writer = maxR_and_writers.get(mr);
                         for (String description : selected)
                             writer.write(description + "\n");
@@ -368,6 +299,8 @@ public class ProdDescCorpusForBert_Thread implements Runnable {
                 }
                 maxRs.remove(finish_maxR);
             }
+            if (ranked != null)
+                ranked.write(selected, ranks, countResults);
 
 
         } catch (Exception e) {
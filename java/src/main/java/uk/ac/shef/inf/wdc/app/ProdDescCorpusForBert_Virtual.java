@@ -0,0 +1,141 @@
+package uk.ac.shef.inf.wdc.app;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.core.CoreContainer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Same as ProdDescCorpusForBert_Thread, but every product name is expanded by a task of its own instead of the names
+ * being split into one list per thread, so no thread sits idle while another still has a long list to go. On JDK 21
+ * and later, each task is a virtual thread; before, tasks run on a pool of as many threads as searches allowed.
+ * <p>
+ * A semaphore bounds the number of searches running at the same time, and a name is only submitted once a permit
+ * is free, so the index is kept busy but not overloaded, and only that many tasks are alive at a time.
+ * <p>
+ * Names are submitted as they are read from the input file (see ProdDescNameSource). With a sample below 1, each
+ * name is kept with that probability.
+ * <p>
+ * Same arguments as ProdDescCorpusForBert_Thread, args[6] being the number of concurrent searches. Descriptions are
+ * written to [outFolder]/[maxResult]/all_[dataset].txt, or [outFolder]/ranked/all_[dataset].ranked.tsv with the
+ * ranked output (args[8], see ProdDescRankedOutput)
+ */
+public class ProdDescCorpusForBert_Virtual {
+
+    private static final Logger LOG = Logger.getLogger(ProdDescCorpusForBert_Virtual.class.getName());
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CoreContainer prodNDContainer = new CoreContainer(args[0]);
+        prodNDContainer.load();
+        SolrClient prodNameDescIndex = new EmbeddedSolrServer(prodNDContainer.getCore("prodcatdesc"));
+        ProdDescCorpusForBert_ConcurrentSet results = new ProdDescCorpusForBert_ConcurrentSet();
+
+        String[] maxResults = args[1].split(",");//max number of products to select for composing desc
+
+        String inFile = args[2];
+        String nameCol = args[3];
+        String outFolder = args[4];
+        String dataset = args[5];
+
+        int searches = Integer.valueOf(args[6]);
+        double sample = 1.0;
+        if (args.length > 7)
+            sample = Double.valueOf(args[7]);
+        String output = ProdDescRankedOutput.TEXT;
+        if (args.length > 8)
+            output = args[8];
+
+        Set<Integer> cutoffs = new HashSet<>();
+        for (String maxR : maxResults)
+            cutoffs.add(Integer.valueOf(maxR));
+        ProdDescRankedOutput ranked = ProdDescRankedOutput.open(outFolder, "all_" + dataset, output);
+        Map<Integer, OutputStreamWriter> writers = new HashMap<>();
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService executor = newExecutor(searches);
+        try {
+            if (ranked == null) {
+                for (String maxR : maxResults) {
+                    String outDir = outFolder + "/" + maxR;
+                    new File(outDir).mkdirs();
+                    writers.put(Integer.valueOf(maxR), new OutputStreamWriter(
+                            new FileOutputStream(outDir + "/all_" + dataset + ".txt"), StandardCharsets.UTF_8));
+                }
+            }
+            Map<Integer, OutputStreamWriter> textWriters = ranked == null ? writers : null;
+
+            //the search and filtering of a name are those of ProdDescCorpusForBert_Thread
+            ProdDescCorpusForBert_Thread expander = new ProdDescCorpusForBert_Thread(0, null, outFolder,
+                    maxResults, prodNameDescIndex, dataset, sample, results);
+            Semaphore permits = new Semaphore(searches);
+            Random random = new Random();
+            System.out.println(new Date() + "\tProcessing data...");
+            if (sample < 1.0)
+                System.out.println("Processing only sample size=" + sample);
+            ProdDescNameSource source = new ProdDescNameSource(inFile, dataset, nameCol);
+            String next;
+            while ((next = source.next()) != null) {
+                if (sample < 1.0 && random.nextDouble() >= sample)
+                    continue;
+                String name = next;
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        expander.expand(name, cutoffs, textWriters, ranked);
+                    } finally {
+                        permits.release();
+                    }
+                    int n = done.incrementAndGet();
+                    if (n % 100 == 0)
+                        System.out.println(new Date() + " \t done " + n);
+                });
+            }
+            source.close();
+        } finally {
+            //the outputs are only closed once the tasks writing to them are done
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } finally {
+                if (ranked != null)
+                    ranked.close();
+                for (OutputStreamWriter w : writers.values())
+                    w.close();
+            }
+        }
+        System.out.println("Total records=" + done.get());
+
+        prodNameDescIndex.close();
+        LOG.info("COMPLETE!");
+        System.exit(0);
+    }
+
+    /**
+     * @return a virtual thread per task executor if the JVM has them (JDK 21+), otherwise a pool of 'threads'
+     * threads. Looked up by reflection, so the code still builds for Java 8.
+     */
+    static ExecutorService newExecutor(int threads) {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOG.info("Running a virtual thread per task");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.info(String.format("Virtual threads not available, running a pool of %d threads (%s)",
+                    threads, ExceptionUtils.getRootCauseMessage(e)));
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+}
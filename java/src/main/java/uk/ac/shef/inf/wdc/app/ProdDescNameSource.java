@@ -0,0 +1,153 @@
+package uk.ac.shef.inf.wdc.app;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads the product names of a dataset file one at a time, as they are needed, so the names can be expanded while the
+ * file is still being read. Names are returned in the order they are first seen, each only once (a hash set of the
+ * names seen so far, so reading is linear in the size of the file). A json line is parsed by a TypeAdapter kept for
+ * the whole file, into the same Map gson.fromJson(line, Map.class) gives.
+ * <p>
+ * dataset is one of mwpd, wdc, icecat (json lines) or anything else for tab separated lines with the name first, as
+ * in ProdDescCorpusForBert. {@link #next()} is synchronized, so worker threads can take their names from a shared
+ * source.
+ */
+public class ProdDescNameSource implements Closeable {
+
+    private final BufferedReader reader;
+    private final String dataset;
+    private final String nameCol;
+    private final TypeAdapter<Map> adapter = new Gson().getAdapter(Map.class);
+    private final Set<String> seen = new HashSet<>();
+    private int lines;
+
+    public ProdDescNameSource(String inFile, String dataset, String nameCol) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), StandardCharsets.UTF_8));
+        this.dataset = dataset;
+        this.nameCol = nameCol;
+    }
+
+    /**
+     * @return all the names of the file, in the order they are first seen
+     */
+    public static List<String> readAll(String inFile, String dataset, String nameCol) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ProdDescNameSource source = new ProdDescNameSource(inFile, dataset, nameCol)) {
+            String name;
+            while ((name = source.next()) != null)
+                names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @return the next name not returned before, or null at the end of the file
+     */
+    public synchronized String next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int lineNo = lines++;
+            Map rowValues;
+            if (dataset.equalsIgnoreCase("mwpd"))
+                rowValues = readJson(line);
+            else if (dataset.equalsIgnoreCase("wdc"))
+                rowValues = readWDCLine(line);
+            else if (dataset.equalsIgnoreCase("icecat"))
+                rowValues = readIceCatLine(line);
+            else
+                rowValues = readRakutenLine(line);
+
+            Object value = rowValues.get(nameCol);
+            String name = value == null ? null : value.toString();
+            if (name == null || name.length() == 0) {
+                System.err.println("Line " + lineNo + " has no name, skip");
+                continue;
+            }
+            if (name.endsWith("-"))
+                name = name.substring(0, name.length() - 1).trim();
+            if (name.length() == 0 || !seen.add(name))
+                continue;
+            if (seen.size() % 1000 == 0)
+                System.out.println(new Date() + " \t read " + seen.size() + " data records");
+            return name;
+        }
+        return null;
+    }
+
+    /**
+     * @return number of distinct names returned so far
+     */
+    public synchronized int size() {
+        return seen.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Map readJson(String line) throws IOException {
+        //lenient, as gson.fromJson is
+        JsonReader r = new JsonReader(new StringReader(line));
+        r.setLenient(true);
+        Map values = adapter.read(r);
+        return values == null ? Collections.emptyMap() : values;
+    }
+
+    private Map readWDCLine(String line) throws IOException {
+        Map values = readJson(line);
+
+        Map result = new HashMap();
+        if (values.containsKey("schema.org_properties"))
+            findName((List) values.get("schema.org_properties"), result);
+
+        if (values.containsKey("parent_schema.org_properties") && (!result.containsKey("Name")
+                || String.valueOf(result.get("Name")).length() == 0))
+            findName((List) values.get("parent_schema.org_properties"), result);
+
+        return result;
+    }
+
+    private static void findName(List properties, Map result) {
+        for (Object o : properties) {
+            Map m = (Map) o;
+            if (m.containsKey("/title")) {
+                result.put("Name", trim(String.valueOf(m.get("/title"))));
+                break;
+            }
+            if (m.containsKey("/name")) {
+                result.put("Name", trim(String.valueOf(m.get("/name"))));
+                break;
+            }
+        }
+    }
+
+    private static Map readRakutenLine(String line) {
+        String[] values = line.split("\\t");
+        Map res = new HashMap();
+        res.put("Name", values[0]);
+        return res;
+    }
+
+    private Map readIceCatLine(String line) throws IOException {
+        //Title
+        Map res = readJson(line);
+        if (res.containsKey("Title"))
+            res.put("Name", res.get("Title"));
+        return res;
+    }
+
+    private static String trim(String v) {
+        if (v.startsWith("["))
+            v = v.substring(1);
+        if (v.endsWith("]"))
+            v = v.substring(0, v.length() - 1);
+        return v.trim();
+    }
+}
@@ -0,0 +1,161 @@
+package uk.ac.shef.inf.wdc.app;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the descriptions selected for a corpus once, whatever the number of 'max results' asked for, instead of once
+ * per max result file. A line is
+ * <p>
+ * [reached] TAB [rank] TAB [description]
+ * <p>
+ * where rank is the number of results of the name counted when the description was selected, and reached the number
+ * of results the name got to (at most the largest max result). The [maxResult] file of the text output is then the
+ * descriptions with reached &gt;= maxResult and rank &lt;= maxResult, in the same order, which {@link #split} (or
+ * {@link #main}) writes in one pass over the file, for any max results.
+ * <p>
+ * Output goes through large buffers, gzip compressed if the mode is {@link #RANKED_GZ}. {@link #write} is
+ * synchronized, so tasks can share a file.
+ */
+public class ProdDescRankedOutput implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ProdDescRankedOutput.class.getName());
+
+    public static final String TEXT = "text";
+    public static final String RANKED = "ranked";
+    public static final String RANKED_GZ = "ranked-gz";
+    public static final String EXTENSION = ".ranked.tsv";
+
+    private static final int BUFFER = 1 << 20;
+
+    private final Writer writer;
+
+    public ProdDescRankedOutput(String file, boolean gzip) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (gzip)
+                out = new GZIPOutputStream(out, BUFFER);
+            else
+                out = new BufferedOutputStream(out, BUFFER);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER);
+    }
+
+    /**
+     * @param mode one of {@link #TEXT}, {@link #RANKED}, {@link #RANKED_GZ}
+     * @return the output for [outFolder]/ranked/[name], or null if the mode is the text output (one file per max
+     * result)
+     */
+    public static ProdDescRankedOutput open(String outFolder, String name, String mode) throws IOException {
+        if (mode == null || mode.equalsIgnoreCase(TEXT))
+            return null;
+        boolean gzip;
+        if (mode.equalsIgnoreCase(RANKED))
+            gzip = false;
+        else if (mode.equalsIgnoreCase(RANKED_GZ))
+            gzip = true;
+        else
+            throw new IllegalArgumentException("Unknown output mode: " + mode);
+
+        String outDir = outFolder + "/" + RANKED;
+        new File(outDir).mkdirs();
+        return new ProdDescRankedOutput(outDir + "/" + name + EXTENSION + (gzip ? ".gz" : ""), gzip);
+    }
+
+    /**
+     * @param descriptions descriptions selected for a name, in the order selected
+     * @param ranks        rank of each description
+     * @param reached      number of results the name got to
+     */
+    public synchronized void write(List<String> descriptions, List<Integer> ranks, int reached) throws IOException {
+        for (int i = 0; i < descriptions.size(); i++) {
+            writer.write(String.valueOf(reached));
+            writer.write('\t');
+            writer.write(String.valueOf(ranks.get(i)));
+            writer.write('\t');
+            writer.write(descriptions.get(i));
+            writer.write('\n');
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * writes the descriptions of every max result in 'maxResults' to its writer, reading the ranked file once
+     */
+    public static void split(File rankedFile, Map<Integer, Writer> maxResults) throws IOException {
+        InputStream in = new FileInputStream(rankedFile);
+        if (rankedFile.getName().endsWith(".gz"))
+            in = new GZIPInputStream(in, BUFFER);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int t1 = line.indexOf('\t');
+                int t2 = line.indexOf('\t', t1 + 1);
+                if (t1 < 0 || t2 < 0) {
+                    LOG.warn("Malformed line in " + rankedFile + ", skip: " + line);
+                    continue;
+                }
+                int reached = Integer.parseInt(line.substring(0, t1));
+                int rank = Integer.parseInt(line.substring(t1 + 1, t2));
+                for (Map.Entry<Integer, Writer> e : maxResults.entrySet()) {
+                    int mr = e.getKey();
+                    if (reached >= mr && rank <= mr) {
+                        Writer w = e.getValue();
+                        w.write(line, t2 + 1, line.length() - t2 - 1);
+                        w.write('\n');
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the text output of the ranked files of a corpus, i.e., [outFolder]/[maxResult]/[name].txt for every
+     * [rankedFolder]/[name].ranked.tsv(.gz)
+     * <p>
+     * args[0]: the ranked folder, args[1]: the out folder, args[2]: max results, comma separated, e.g., 1,5,10
+     */
+    public static void main(String[] args) throws IOException {
+        File[] files = new File(args[0]).listFiles();
+        if (files == null) {
+            LOG.warn("Not a folder: " + args[0]);
+            return;
+        }
+        Arrays.sort(files);
+        String[] maxResults = args[2].split(",");
+        for (File f : files) {
+            String name = f.getName();
+            int ext = name.indexOf(EXTENSION);
+            if (ext < 0)
+                continue;
+            name = name.substring(0, ext);
+
+            Map<Integer, Writer> writers = new HashMap<>();
+            try {
+                for (String maxR : maxResults) {
+                    String outDir = args[1] + "/" + maxR;
+                    new File(outDir).mkdirs();
+                    writers.put(Integer.valueOf(maxR), new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(outDir + "/" + name + ".txt"), StandardCharsets.UTF_8), BUFFER));
+                }
+                split(f, writers);
+            } finally {
+                for (Writer w : writers.values())
+                    w.close();
+            }
+            System.out.println(new Date() + "\tSplit " + f);
+        }
+    }
+}
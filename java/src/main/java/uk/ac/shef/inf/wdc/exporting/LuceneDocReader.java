@@ -0,0 +1,149 @@
+package uk.ac.shef.inf.wdc.exporting;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the stored fields of all the documents of an index, segment by segment, for the Lucene exporters. Instead of
+ * IndexReader.document(i) on the top level reader for every doc number, each segment (LeafReader) is read in doc
+ * order, deleted documents are skipped (live docs), and only the fields asked for are loaded.
+ * <p>
+ * The segments can be read by several threads: {@link #readSegments(DocHandler)} takes the next part of a segment not
+ * read yet (segments are cut in parts of at most {@link #PART_DOCS} documents, so a large segment does not keep one
+ * thread busy while the others are done) until there is none left. Each part is handed out once per instance.
+ */
+public class LuceneDocReader {
+
+    private static final Logger LOG = Logger.getLogger(LuceneDocReader.class.getName());
+
+    public static final int PART_DOCS = 100000;
+
+    /**
+     * called for each live document read
+     */
+    public interface DocHandler {
+        /**
+         * @param doc    doc number in the top level reader, as for IndexReader.document(doc)
+         * @param fields the fields asked for, of those the document has
+         */
+        void handle(int doc, Document fields) throws IOException;
+    }
+
+    private final IndexReader reader;
+    private final Set<String> fields;
+    //[leaf, first doc, end doc] of the parts of the segments, in doc order
+    private final List<int[]> parts = new ArrayList<>();
+    private final AtomicInteger nextPart = new AtomicInteger();
+
+    /**
+     * @param fields stored fields to load; all of them if none
+     */
+    public LuceneDocReader(IndexReader reader, String... fields) {
+        this.reader = reader;
+        this.fields = fields.length == 0 ? null : new HashSet<>(Arrays.asList(fields));
+        List<LeafReaderContext> leaves = reader.leaves();
+        for (int l = 0; l < leaves.size(); l++) {
+            int maxDoc = leaves.get(l).reader().maxDoc();
+            for (int d = 0; d < maxDoc; d += PART_DOCS)
+                parts.add(new int[]{l, d, Math.min(d + PART_DOCS, maxDoc)});
+        }
+    }
+
+    /**
+     * reads the live documents whose doc numbers are in [start, end), in doc order
+     *
+     * @return number of documents read
+     */
+    public long read(int start, int end, DocHandler handler) throws IOException {
+        long count = 0;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            int from = Math.max(start - leaf.docBase, 0);
+            int to = Math.min(end - leaf.docBase, leaf.reader().maxDoc());
+            if (from < to)
+                count += read(leaf, from, to, handler);
+        }
+        return count;
+    }
+
+    /**
+     * reads the parts of the segments not taken by another thread yet, until there are none left
+     *
+     * @return number of documents read by this thread
+     */
+    public long readSegments(DocHandler handler) throws IOException {
+        long count = 0;
+        List<LeafReaderContext> leaves = reader.leaves();
+        int p;
+        while ((p = nextPart.getAndIncrement()) < parts.size()) {
+            int[] part = parts.get(p);
+            count += read(leaves.get(part[0]), part[1], part[2], handler);
+        }
+        return count;
+    }
+
+    /**
+     * reads all the segments with 'threads' threads calling the same handler, which must be thread safe
+     *
+     * @return number of documents read
+     */
+    public long readSegments(int threads, DocHandler handler) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger failed = new AtomicInteger();
+        List<Long> counts = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < threads; i++) {
+            int threadID = i;
+            executor.execute(() -> {
+                try {
+                    counts.add(readSegments(handler));
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    LOG.warn(String.format("\t\t thread %d stopped reading segments: %s",
+                            threadID, ExceptionUtils.getFullStackTrace(e)));
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the segments", e);
+        }
+        if (failed.get() > 0)
+            throw new IOException(failed.get() + " threads failed reading the segments, see the log");
+        long count = 0;
+        for (long c : counts)
+            count += c;
+        return count;
+    }
+
+    private long read(LeafReaderContext leaf, int from, int to, DocHandler handler) throws IOException {
+        LeafReader r = leaf.reader();
+        Bits liveDocs = r.getLiveDocs();
+        long count = 0;
+        for (int d = from; d < to; d++) {
+            if (liveDocs != null && !liveDocs.get(d))
+                continue;
+            DocumentStoredFieldVisitor visitor = fields == null ?
+                    new DocumentStoredFieldVisitor() : new DocumentStoredFieldVisitor(fields);
+            r.document(d, visitor);
+            handler.handle(leaf.docBase + d, visitor.getDocument());
+            count++;
+        }
+        return count;
+    }
+}
@@ -15,14 +15,16 @@ import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.search.SolrIndexSearcher;
+import uk.ac.shef.inf.wdc.indexing.BatchingSolrWriter;
 import uk.ac.shef.inf.wdc.indexing.ProdCatDescIndexCreator;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * needs the previously cat index and desc index separately, merge them into a single one with the
- * same schema as the new format
+ * same schema as the new format. The desc index is read with a LuceneDocReader, by one or more threads
  */
 
 public class ProdDescCatIndecesMerger {
@@ -31,59 +33,67 @@ public class ProdDescCatIndecesMerger {
 
     private int id;
     private IndexReader luceneIndexReader;
+    private LuceneDocReader docReader;
     private SolrClient prodNameCatIndex;
-    private SolrClient newIndex;
+    private BatchingSolrWriter newIndex;
     private int resultBatchSize;
+    private LongAdder countAdded = new LongAdder();
 
     public ProdDescCatIndecesMerger(int id,
                                     IndexReader prodNameDescIndex_old,
                                     int resultBatchSize, SolrClient prodNameCatIndex,
-                                    SolrClient newIndex) {
+                                    BatchingSolrWriter newIndex) {
         this.id = id;
 
         this.luceneIndexReader = prodNameDescIndex_old;
+        this.docReader = new LuceneDocReader(prodNameDescIndex_old, "id", "name", "text");
         this.resultBatchSize = resultBatchSize;
         this.prodNameCatIndex = prodNameCatIndex;
         this.newIndex = newIndex;
     }
 
     public void merge() {
-        long total = 0;
+        merge(1);
+    }
 
+    /**
+     * @param threads threads reading the segments of the desc index
+     */
+    public void merge(int threads) {
         try {
-
-            long countAdded = 0;
             //update results
             LOG.info(String.format("\t\ttotal=%d", luceneIndexReader.maxDoc()));
-            for (int i = 0; i < luceneIndexReader.maxDoc(); i++) {
-
-                Document doc = luceneIndexReader.document(i);
-                try {
-                    boolean added = mergeRecord(doc, prodNameCatIndex, newIndex);
-                    if (added)
-                        countAdded++;
-                    if (i % resultBatchSize == 0) {
-                        LOG.info(String.format("\t\tthread %d: total results of %d, currently processing %d ...",
-                                id, total, i));
-                        newIndex.commit();
-                    }
-                } catch (Exception e) {
-                    System.err.println("\t\t error encountered, skipped");
-                }
-                // do something with docId here...
-
-            }
+            if (threads > 1)
+                docReader.readSegments(threads, this::mergeDoc);
+            else
+                docReader.read(0, luceneIndexReader.maxDoc(), this::mergeDoc);
 
             newIndex.commit();
+            LOG.info(String.format("\t\tthread %d: total added %d", id, countAdded.sum()));
         } catch (Exception ioe) {
             LOG.warn(String.format("\t\t thread %d unable to create output files, io exception: %s",
                     id, ExceptionUtils.getFullStackTrace(ioe)));
         }
     }
 
+    private void mergeDoc(int i, Document doc) {
+        try {
+            boolean added = mergeRecord(doc, prodNameCatIndex, newIndex);
+            if (added)
+                countAdded.increment();
+            if (i % resultBatchSize == 0) {
+                LOG.info(String.format("\t\tthread %d: total added %d, currently processing %d ...",
+                        id, countAdded.sum(), i));
+                newIndex.commit();
+            }
+        } catch (Exception e) {
+            System.err.println("\t\t error encountered, skipped");
+        }
+    }
+
     private boolean mergeRecord(Document d,
                                 SolrClient prodNameCatIndex,
-                                SolrClient newIndex) throws IOException, SolrServerException {
+                                BatchingSolrWriter newIndex) throws IOException, SolrServerException {
 
         String id = d.get("id");
         String nameData = d.get("name");
@@ -138,6 +148,9 @@ public class ProdDescCatIndecesMerger {
     }
 
 
+    /**
+     * args[3], optional: number of threads reading the segments of the desc index
+     */
     public static void main(String[] args) throws IOException, SolrServerException {
 
         CoreContainer oldprodDescContainer = new CoreContainer(args[0]);
@@ -153,6 +166,7 @@ public class ProdDescCatIndecesMerger {
         newIndexContainer.load();
         SolrCore core3 = newIndexContainer.getCore("prodcatdesc");
         SolrClient newIndex = new EmbeddedSolrServer(core3);
+        BatchingSolrWriter newIndexWriter = new BatchingSolrWriter(newIndex);
         //prodDescIndex.close();
 
         // prodNDContainer = new CoreContainer(args[0]);
@@ -162,10 +176,11 @@ public class ProdDescCatIndecesMerger {
         IndexReader oldProdDescIndex = solrIndexSearcher.getIndexReader();
 
         ProdDescCatIndecesMerger exporter = new ProdDescCatIndecesMerger(0,
-                oldProdDescIndex, 100000, prodCatIndex, newIndex
+                oldProdDescIndex, 100000, prodCatIndex, newIndexWriter
         );
 
-        exporter.merge();
+        exporter.merge(args.length > 3 ? Integer.valueOf(args[3]) : 1);
+        newIndexWriter.close();
         newIndex.close();
         oldProdDescIndex.close();
         prodCatIndex.close();
@@ -20,6 +20,7 @@ import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
+import uk.ac.shef.inf.wdc.indexing.BatchingSolrWriter;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -67,7 +68,7 @@ public class ProdDescExporter {
     }
 
     private void export(SolrClient prodTripleIndex, int resultBatchSize,
-                        SolrClient prodNameDescIndex){
+                        BatchingSolrWriter prodNameDescIndex){
         int start=0;
         SolrQuery q = createQuery(resultBatchSize,start);
         QueryResponse res;
@@ -113,13 +114,14 @@ public class ProdDescExporter {
             prodTripleIndex.close();
             prodNameDescIndex.commit();
             prodNameDescIndex.close();
+            prodNameDescIndex.getClient().close();
         }catch (Exception e){
             LOG.warn(String.format("\t\t unable to shut down servers due to error: %s",
                     ExceptionUtils.getFullStackTrace(e)));
         }
     }
 
-    private int createRecord(SolrDocument d, SolrClient prodcatIndex) throws IOException, SolrServerException {
+    private int createRecord(SolrDocument d, BatchingSolrWriter prodcatIndex) throws IOException {
         String id = d.getFieldValue("id").toString();
         SolrInputDocument doc = new SolrInputDocument();
 
@@ -193,7 +195,7 @@ public class ProdDescExporter {
         SolrClient prodNameDescIndex = new EmbeddedSolrServer(prodNDContainer.getCore("proddesc"));
 
         ProdDescExporter exporter = new ProdDescExporter();
-        exporter.export(prodTripleIndex, Integer.valueOf(args[2]), prodNameDescIndex);
+        exporter.export(prodTripleIndex, Integer.valueOf(args[2]), new BatchingSolrWriter(prodNameDescIndex));
         System.exit(0);
         LOG.info("COMPLETE!");
 
@@ -16,81 +16,98 @@ import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.search.SolrIndexSearcher;
+import uk.ac.shef.inf.wdc.indexing.BatchingSolrWriter;
+import uk.ac.shef.inf.wdc.DomainFilter;
 
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * processes the index created by ProdDescExporter_NewSchema_Lucene to export data to a new
- * index of the same schema, but only contain hosts meeting certain criteria
+ * index of the same schema, but only contain hosts meeting certain criteria. The index is read with a
+ * LuceneDocReader, either a range of doc numbers or all segments by several threads
  *
  */
 public class ProdDescExporter_Filter_Lucene {
-    private List<String> invalidDomains = Arrays.asList(".ru", ".rs", ".gr", ".pl", ".md", ".fr",
-            ".ro", ".dk", ".ua", ".at", ".bg", ".tw", ".by", ".hk", ".it", ".jp", ".in", ".no", ".lt", ".hu",
-            ".ch", ".ir", ".kz", ".mx", ".su", ".br",
-            ".cz", ".ee", ".sk", ".si", ".be", ".de", ".nl", ".es");
-
     private static final Logger LOG = Logger.getLogger(ProdDescExporter_Filter_Lucene.class.getName());
 
     private int id;
     private int start;
     private int end;
     private IndexReader luceneIndexReader;
-    private SolrClient prodNameDescIndex;
+    private LuceneDocReader docReader;
+    private BatchingSolrWriter prodNameDescIndex;
     private int resultBatchSize;
+    private LongAdder countAdded = new LongAdder();
 
     public ProdDescExporter_Filter_Lucene(int id, int start, int end,
                                              IndexReader prodNameDescIndex_old,
-                                             int resultBatchSize, SolrClient prodNameDescIndex_new) {
+                                             int resultBatchSize, BatchingSolrWriter prodNameDescIndex_new) {
         this.id = id;
         this.start = start;
         this.end = end;
         this.luceneIndexReader = prodNameDescIndex_old;
+        this.docReader = new LuceneDocReader(prodNameDescIndex_old, "id", "name", "text");
         this.resultBatchSize = resultBatchSize;
         this.prodNameDescIndex = prodNameDescIndex_new;
     }
 
     public void export(List<String> validHosts) {
-        long total = 0;
-
         LOG.info(String.format("\tthread %d: Started, begin=%d end=%d...",
                 id, start, end));
 
+        Set<String> hosts = new HashSet<>(validHosts);
         try {
-
-            long countAdded = 0;
             //update results
             LOG.info(String.format("\t\ttotal=%d", luceneIndexReader.maxDoc()));
-            for (int i = start; i < luceneIndexReader.maxDoc() && i < end; i++) {
-
-                Document doc = luceneIndexReader.document(i);
-                try {
-                    boolean added = exportRecord(doc, prodNameDescIndex, validHosts);
-                    if (added)
-                        countAdded++;
-                    if (i % resultBatchSize == 0) {
-                        LOG.info(String.format("\t\tthread %d: total results of %d, currently processing %d /started at %d to %d...",
-                                id, total, i, start, end));
-                        prodNameDescIndex.commit();
-                    }
-                }catch (Exception e){
-                    System.err.println("\t\t error encountered, skipped");
-                }
-                // do something with docId here...
+            docReader.read(start, end, (i, doc) -> exportDoc(i, doc, hosts));
 
-            }
+            prodNameDescIndex.commit();
+            LOG.info(String.format("\t\tthread %d: total added %d", id, countAdded.sum()));
+        } catch (Exception ioe) {
+            LOG.warn(String.format("\t\t thread %d unable to create output files, io exception: %s",
+                    id, ExceptionUtils.getFullStackTrace(ioe)));
+        }
+    }
+
+    /**
+     * exports the whole index, its segments read by 'threads' threads
+     */
+    public void exportSegments(List<String> validHosts, int threads) {
+        LOG.info(String.format("\tthread %d: Started, %d threads over all segments...", id, threads));
+
+        Set<String> hosts = new HashSet<>(validHosts);
+        try {
+            LOG.info(String.format("\t\ttotal=%d", luceneIndexReader.maxDoc()));
+            docReader.readSegments(threads, (i, doc) -> exportDoc(i, doc, hosts));
 
             prodNameDescIndex.commit();
+            LOG.info(String.format("\t\tthread %d: total added %d", id, countAdded.sum()));
         } catch (Exception ioe) {
             LOG.warn(String.format("\t\t thread %d unable to create output files, io exception: %s",
                     id, ExceptionUtils.getFullStackTrace(ioe)));
         }
     }
 
+    private void exportDoc(int i, Document doc, Set<String> validHosts) {
+        try {
+            boolean added = exportRecord(doc, prodNameDescIndex, validHosts);
+            if (added)
+                countAdded.increment();
+            if (i % resultBatchSize == 0) {
+                LOG.info(String.format("\t\tthread %d: total added %d, currently processing %d /started at %d to %d...",
+                        id, countAdded.sum(), i, start, end));
+                prodNameDescIndex.commit();
+            }
+        }catch (Exception e){
+            System.err.println("\t\t error encountered, skipped");
+        }
+    }
+
     private boolean exportRecord(Document d,
-                                 SolrClient newIndex, List<String> validHosts) throws IOException, SolrServerException {
+                                 BatchingSolrWriter newIndex, Set<String> validHosts) throws IOException {
 
         String id = d.get("id");
         String nameData = d.get("name");
@@ -135,12 +152,7 @@ public class ProdDescExporter_Filter_Lucene {
     }
 
     private boolean isValidHost(String host) {
-        for (String d : invalidDomains) {
-            if (host.endsWith(d))
-                return false;
-        }
-
-        return true;
+        return !DomainFilter.NON_ENGLISH_EXPORT.matchesSuffix(host);
     }
 
     private String cleanData(String value) {
@@ -178,6 +190,10 @@ public class ProdDescExporter_Filter_Lucene {
     }
 
 
+    /**
+     * args[4], optional: number of threads reading all the segments of the index, instead of the doc numbers from
+     * args[2] to args[3]
+     */
     public static void main(String[] args) throws IOException, SolrServerException {
 
         //74488335
@@ -204,16 +220,21 @@ public class ProdDescExporter_Filter_Lucene {
         CoreContainer prodNCContainer = new CoreContainer(args[1]);
         prodNCContainer.load();
         SolrClient prodDescIndex_filtered = new EmbeddedSolrServer(prodNCContainer.getCore("proddesc"));
+        BatchingSolrWriter prodDescWriter_filtered = new BatchingSolrWriter(prodDescIndex_filtered);
 
 
         ProdDescExporter_Filter_Lucene exporter = new ProdDescExporter_Filter_Lucene(0,
                 jobStart, jobs,
                 prodNameDescIndex,
-                5000,prodDescIndex_filtered
+                5000,prodDescWriter_filtered
         );
 
 
-        exporter.export(validHosts);
+        if (args.length > 4)
+            exporter.exportSegments(validHosts, Integer.valueOf(args[4]));
+        else
+            exporter.export(validHosts);
+        prodDescWriter_filtered.close();
         prodDescIndex_filtered.close();
         prodNameDescIndex.close();
         System.exit(0);
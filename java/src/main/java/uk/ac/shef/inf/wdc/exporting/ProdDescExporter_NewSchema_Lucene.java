@@ -12,12 +12,15 @@ import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.search.SolrIndexSearcher;
+import uk.ac.shef.inf.wdc.indexing.BatchingSolrWriter;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * processes the original desc index, parse 'id' field to extract host and save it as a separate field
+ * processes the original desc index, parse 'id' field to extract host and save it as a separate field. The index is
+ * read with a LuceneDocReader, either a range of doc numbers or all segments by several threads
  */
 public class ProdDescExporter_NewSchema_Lucene {
     private static final Logger LOG = Logger.getLogger(ProdDescExporter_NewSchema_Lucene.class.getName());
@@ -26,56 +29,75 @@ public class ProdDescExporter_NewSchema_Lucene {
     private int start;
     private int end;
     private IndexReader luceneIndexReader;
-    private SolrClient prodNameDescIndex;
+    private LuceneDocReader docReader;
+    private BatchingSolrWriter prodNameDescIndex;
     private int resultBatchSize;
+    private LongAdder countAdded = new LongAdder();
 
     public ProdDescExporter_NewSchema_Lucene(int id, int start, int end,
                                              IndexReader prodNameDescIndex_old,
-                                             int resultBatchSize, SolrClient prodNameDescIndex_new) {
+                                             int resultBatchSize, BatchingSolrWriter prodNameDescIndex_new) {
         this.id = id;
         this.start = start;
         this.end = end;
         this.luceneIndexReader = prodNameDescIndex_old;
+        this.docReader = new LuceneDocReader(prodNameDescIndex_old, "id", "name", "text");
         this.resultBatchSize = resultBatchSize;
         this.prodNameDescIndex = prodNameDescIndex_new;
     }
 
     public void export() {
-        long total = 0;
-
         LOG.info(String.format("\tthread %d: Started, begin=%d end=%d...",
                 id, start, end));
 
         try {
-
-            long countAdded = 0;
             //update results
             LOG.info(String.format("\t\ttotal=%d", luceneIndexReader.maxDoc()));
-            for (int i = start; i < luceneIndexReader.maxDoc() && i < end; i++) {
+            docReader.read(start, end, this::exportDoc);
 
-                Document doc = luceneIndexReader.document(i);
-                boolean added = exportRecord(doc, prodNameDescIndex);
-                if (added)
-                    countAdded++;
-                if (i % resultBatchSize == 0) {
-                    LOG.info(String.format("\t\tthread %d: total results of %d, currently processing %d /started at %d to %d...",
-                            id, total, i, start, end));
-                    prodNameDescIndex.commit();
-                }
+            prodNameDescIndex.commit();
+            LOG.info(String.format("\t\tthread %d: total added %d", id, countAdded.sum()));
+        } catch (Exception ioe) {
+            LOG.warn(String.format("\t\t thread %d unable to create output files, io exception: %s",
+                    id, ExceptionUtils.getFullStackTrace(ioe)));
+        }
+    }
 
-                // do something with docId here...
+    /**
+     * exports the whole index, its segments read by 'threads' threads
+     */
+    public void exportSegments(int threads) {
+        LOG.info(String.format("\tthread %d: Started, %d threads over all segments...", id, threads));
 
-            }
+        try {
+            LOG.info(String.format("\t\ttotal=%d", luceneIndexReader.maxDoc()));
+            docReader.readSegments(threads, this::exportDoc);
 
             prodNameDescIndex.commit();
+            LOG.info(String.format("\t\tthread %d: total added %d", id, countAdded.sum()));
         } catch (Exception ioe) {
             LOG.warn(String.format("\t\t thread %d unable to create output files, io exception: %s",
                     id, ExceptionUtils.getFullStackTrace(ioe)));
         }
     }
 
+    private void exportDoc(int i, Document doc) throws IOException {
+        boolean added = exportRecord(doc, prodNameDescIndex);
+        if (added)
+            countAdded.increment();
+        if (i % resultBatchSize == 0) {
+            LOG.info(String.format("\t\tthread %d: total added %d, currently processing %d /started at %d to %d...",
+                    id, countAdded.sum(), i, start, end));
+            try {
+                prodNameDescIndex.commit();
+            } catch (SolrServerException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
     private boolean exportRecord(Document d,
-                                 SolrClient newIndex) throws IOException, SolrServerException {
+                                 BatchingSolrWriter newIndex) throws IOException {
 
         String id = d.get("id");
         String nameData = d.get("name");
@@ -129,6 +151,10 @@ public class ProdDescExporter_NewSchema_Lucene {
     }
 
 
+    /**
+     * args[4], optional: number of threads reading all the segments of the index, instead of the doc numbers from
+     * args[2] to args[3]
+     */
     public static void main(String[] args) throws IOException {
 
         //74488335
@@ -143,16 +169,21 @@ public class ProdDescExporter_NewSchema_Lucene {
         CoreContainer prodNCContainer = new CoreContainer(args[1]);
         prodNCContainer.load();
         SolrClient prodDescIndex_new = new EmbeddedSolrServer(prodNCContainer.getCore("proddesc"));
+        BatchingSolrWriter prodDescWriter_new = new BatchingSolrWriter(prodDescIndex_new);
 
 
         ProdDescExporter_NewSchema_Lucene exporter = new ProdDescExporter_NewSchema_Lucene(0,
                 jobStart, jobs,
                 prodNameDescIndex,
-                5000,prodDescIndex_new
+                5000,prodDescWriter_new
                 );
 
 
-        exporter.export();
+        if (args.length > 4)
+            exporter.exportSegments(Integer.valueOf(args[4]));
+        else
+            exporter.export();
+        prodDescWriter_new.close();
         prodDescIndex_new.close();
         prodNameDescIndex.close();
         System.exit(0);
@@ -1,6 +1,5 @@
 package uk.ac.shef.inf.wdc.exporting;
 
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -8,6 +7,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.search.SolrIndexSearcher;
+import uk.ac.shef.inf.wdc.text.TextNormaliser;
 
 import java.io.FileWriter;
 import java.io.IOException;
@@ -16,7 +16,9 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
- * This class reads the index created by ProdDescExporter, to export product descriptions into batches of txt files
+ * This class reads the index created by ProdDescExporter, to export product descriptions into batches of txt files.
+ * Each thread either reads a range of doc numbers, or the next segments not read by another thread (see
+ * LuceneDocReader)
  */
 public class ProdDescTextFileExporter_Lucene implements Runnable {
 
@@ -30,22 +32,27 @@ public class ProdDescTextFileExporter_Lucene implements Runnable {
     private int id;
     private int start;
     private int end;
-    private IndexReader luceneIndexReader;
+    private LuceneDocReader docReader;
     private int resultBatchSize;
+    private long countNameFileWords, countDescFileWords;
     private String nameOutFolder;
     private String descOutFolder;
 
     public static final int MIN_DESC_WORDS=50;
     public static final int MAX_DESC_WORDS=250;
 
+    /**
+     * @param start first doc number to export, or -1 to export the segments not taken by another thread
+     * @param prodNameDescIndex reader of the 'name' and 'desc' fields
+     */
     public ProdDescTextFileExporter_Lucene(int id, int start, int end,
-                                           IndexReader prodNameDescIndex,
+                                           LuceneDocReader prodNameDescIndex,
                                            int resultBatchSize, String nameOutFolder,
                                            String descOutFolder) {
         this.id = id;
         this.start = start;
         this.end = end;
-        this.luceneIndexReader = prodNameDescIndex;
+        this.docReader = prodNameDescIndex;
         this.resultBatchSize = resultBatchSize;
         this.nameOutFolder = nameOutFolder;
         this.descOutFolder = descOutFolder;
@@ -63,41 +70,14 @@ public class ProdDescTextFileExporter_Lucene implements Runnable {
             nameFile = new PrintWriter(new FileWriter(nameOutFolder + "/n_" + id + "_" + nameFileCounter, true));
             descFile = new PrintWriter(new FileWriter(descOutFolder + "/d_" + id + "_" + descFileCounter, true));
 
-            long countNameFileWords = 0, countDescFileWords = 0, curr = 0;
+            countNameFileWords = 0;
+            countDescFileWords = 0;
             //update results
 
-            for (int i = start; i < luceneIndexReader.maxDoc() && i < end; i++) {
-
-                Document doc = luceneIndexReader.document(i);
-                int[] words = exportRecord(doc, nameFile, descFile);
-                String docid = doc.get("id");
-                if (words[1]>0)
-                    p.println(i+","+words[0]+","+words[1]);
-
-                countNameFileWords += words[0];
-                countDescFileWords += words[1];
-                if (i%resultBatchSize==0)
-                    LOG.info(String.format("\t\tthread %d: total results of %d, currently processing %d /started at %d to %d...",
-                        id, total, i, start,end));
-                // do something with docId here...
-
-                if (countNameFileWords >= maxWordsPerFile) {
-                    LOG.info(String.format("\t\tthread %d: finishing name file, total words= %d",
-                            id, countNameFileWords));
-                    nameFile.close();
-                    nameFileCounter++;
-                    nameFile = new PrintWriter(new FileWriter(nameOutFolder + "/n_" + id + "_"+ nameFileCounter, true));
-                    countNameFileWords = 0;
-                }
-                if (countDescFileWords >= maxWordsPerFile) {
-                    LOG.info(String.format("\t\tthread %d: finishing desc file, total words= %d",
-                            id, countDescFileWords));
-                    descFile.close();
-                    descFileCounter++;
-                    descFile = new PrintWriter(new FileWriter(descOutFolder + "/d_" + id + "_"+ descFileCounter, true));
-                    countDescFileWords = 0;
-                }
-            }
+            if (start < 0)
+                total = docReader.readSegments((i, doc) -> exportDoc(i, doc, p));
+            else
+                total = docReader.read(start, end, (i, doc) -> exportDoc(i, doc, p));
 
 
             try {
@@ -108,6 +88,7 @@ public class ProdDescTextFileExporter_Lucene implements Runnable {
                         id, countNameFileWords));
                 LOG.info(String.format("\t\tthread %d: finishing desc file, total words= %d",
                         id, countDescFileWords));
+                LOG.info(String.format("\t\tthread %d: read %d documents", id, total));
             } catch (Exception e) {
                 LOG.warn(String.format("\t\t thread %d unable to shut down servers due to error: %s",
                         id, ExceptionUtils.getFullStackTrace(e)));
@@ -118,6 +99,35 @@ public class ProdDescTextFileExporter_Lucene implements Runnable {
         }
     }
 
+    private void exportDoc(int i, Document doc, PrintWriter p) throws IOException {
+        int[] words = exportRecord(doc, nameFile, descFile);
+        if (words[1]>0)
+            p.println(i+","+words[0]+","+words[1]);
+
+        countNameFileWords += words[0];
+        countDescFileWords += words[1];
+        if (i%resultBatchSize==0)
+            LOG.info(String.format("\t\tthread %d: currently processing %d /started at %d to %d...",
+                id, i, start,end));
+
+        if (countNameFileWords >= maxWordsPerFile) {
+            LOG.info(String.format("\t\tthread %d: finishing name file, total words= %d",
+                    id, countNameFileWords));
+            nameFile.close();
+            nameFileCounter++;
+            nameFile = new PrintWriter(new FileWriter(nameOutFolder + "/n_" + id + "_"+ nameFileCounter, true));
+            countNameFileWords = 0;
+        }
+        if (countDescFileWords >= maxWordsPerFile) {
+            LOG.info(String.format("\t\tthread %d: finishing desc file, total words= %d",
+                    id, countDescFileWords));
+            descFile.close();
+            descFileCounter++;
+            descFile = new PrintWriter(new FileWriter(descOutFolder + "/d_" + id + "_"+ descFileCounter, true));
+            countDescFileWords = 0;
+        }
+    }
+
     private int[] exportRecord(Document d,
                                 PrintWriter nameFile, PrintWriter descFile) {
 
@@ -158,33 +168,35 @@ public class ProdDescTextFileExporter_Lucene implements Runnable {
             return "";
 
         try {
-            value = StringEscapeUtils.unescapeJava(value);
+            value = TextNormaliser.unescapeJava(value);
         }catch (Exception e){}
-        //removes all non-alphanumeric-or-punctuation characters
-        value = value.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}\\p{Punct}]", " ").
-                replaceAll("\\s+", " ").trim();
-        value = StringUtils.stripAccents(value);
-
-        return value.trim();
+        //removes all non-alphanumeric-or-punctuation characters, and accents
+        return TextNormaliser.instance().keepAlphanumericAndPunct(value);
     }
 
+    /**
+     * args[4] and args[5] (first doc number, docs per thread) are optional: without them, the threads share the
+     * segments of the whole index
+     */
     public static void main(String[] args) throws IOException {
         CoreContainer prodNDContainer = new CoreContainer(args[0]);
         prodNDContainer.load();
         SolrIndexSearcher solrIndexSearcher= prodNDContainer.getCore("prodcatdesc").getSearcher().get();
         IndexReader prodNameDescIndex = solrIndexSearcher.getIndexReader();
+        LuceneDocReader docReader = new LuceneDocReader(prodNameDescIndex, "name", "desc");
         //74488335
-        int jobStart = Integer.valueOf(args[4]);
-        int jobs = Integer.valueOf(args[5]);
+        boolean bySegment = args.length < 6;
+        int jobStart = bySegment ? 0 : Integer.valueOf(args[4]);
+        int jobs = bySegment ? 0 : Integer.valueOf(args[5]);
 
         int threads = Integer.valueOf(args[3]);
         ExecutorService executor = Executors.newFixedThreadPool(threads);
         for (int i = 0; i < threads; i++) {
-            int start = jobStart + i * jobs;
+            int start = bySegment ? -1 : jobStart + i * jobs;
             int end = start + jobs;
             Runnable exporter = new ProdDescTextFileExporter_Lucene(i,
                     start, end,
-                    prodNameDescIndex,
+                    docReader,
                     5000,
                     args[1], args[2]);
             executor.execute(exporter);
@@ -19,6 +19,7 @@ import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
+import uk.ac.shef.inf.wdc.indexing.BatchingSolrWriter;
 
 import java.io.File;
 import java.io.IOException;
@@ -73,7 +74,7 @@ public class ProdNameCategoryExporter {
     }
 
     private void export(SolrClient prodTripleIndex, int resultBatchSize,
-                        SolrClient prodNameCatIndex){
+                        BatchingSolrWriter prodNameCatIndex){
         int start=0;
         SolrQuery q = createQuery(resultBatchSize,start);
         QueryResponse res;
@@ -101,7 +102,7 @@ public class ProdNameCategoryExporter {
                 prodNameCatIndex.commit();
 
                 LOG.info(String.format("\t\ttotal indexed = %d, index size=%d",
-                        count, countIndexSize(prodNameCatIndex)));
+                        count, countIndexSize(prodNameCatIndex.getClient())));
             } catch (Exception e) {
                 LOG.warn(String.format("\t\t unable to successfully index product triples starting from index %s. Due to error: %s",
                         start,
@@ -119,7 +120,7 @@ public class ProdNameCategoryExporter {
         try{
             prodNameCatIndex.commit();
             LOG.info(String.format("Recorded=%d, index size=%d",
-                    count,countIndexSize(prodNameCatIndex)));
+                    count,countIndexSize(prodNameCatIndex.getClient())));
         }catch (Exception e){
             LOG.warn(String.format("\t\t unable to shut down servers due to error: %s",
                     ExceptionUtils.getFullStackTrace(e)));
@@ -139,7 +140,7 @@ public class ProdNameCategoryExporter {
     DiMarzio DP223F PAF 36th Anniversary Humbucker Pickup, F-Spaced, Bridge, Black|Pickups
 discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Pedals
      */
-    private int createRecord(SolrDocument d, SolrClient prodcatIndex, long curr) throws IOException, SolrServerException {
+    private int createRecord(SolrDocument d, BatchingSolrWriter prodcatIndex, long curr) throws IOException {
         String id = d.getFieldValue("id").toString();
         Object h = d.getFieldValue("source_host").toString();
         String url =d.getFieldValue("source_page").toString();
@@ -238,6 +239,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
         CoreContainer prodNCContainer = new CoreContainer(args[1]);
         prodNCContainer.load();
         SolrClient prodNameCatIndex = new EmbeddedSolrServer(prodNCContainer.getCore("prodcat"));
+        BatchingSolrWriter prodNameCatWriter = new BatchingSolrWriter(prodNameCatIndex);
         for(File f: solrIndeces){
             String path = f.toString();
             if (path.contains("entities_")&& f.isDirectory()){
@@ -249,7 +251,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
 
 
                     ProdNameCategoryExporter exporter = new ProdNameCategoryExporter();
-                    exporter.export(prodTripleIndex, Integer.valueOf(args[2]), prodNameCatIndex);
+                    exporter.export(prodTripleIndex, Integer.valueOf(args[2]), prodNameCatWriter);
                     prodTripleIndex.close();
                 }catch (Exception e){
                     e.printStackTrace();
@@ -267,6 +269,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
         System.out.println(parsed);
 */
 
+        prodNameCatWriter.close();
         prodNameCatIndex.close();
         System.exit(0);
 
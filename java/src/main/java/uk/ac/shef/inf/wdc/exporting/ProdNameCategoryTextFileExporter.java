@@ -2,7 +2,6 @@ package uk.ac.shef.inf.wdc.exporting;
 
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrClient;
@@ -13,7 +12,9 @@ import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.core.CoreContainer;
+import uk.ac.shef.inf.wdc.DomainFilter;
 import uk.ac.shef.inf.wdc.Util;
+import uk.ac.shef.inf.wdc.text.TextNormaliser;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -39,8 +40,6 @@ public class ProdNameCategoryTextFileExporter {
     //private long maxWordsPerFile=500;
     private int catFilecounter = 0;
     private CSVWriter catFile;
-    private List<String> validDomains = Arrays.asList(".uk", ".com", ".net", ".org", ".au", ".ag",
-            ".bs", ".bb", ".ca", ".do", ".gd", ".gy", ".ie", ".jm", ".nz", ".kn", ".lc", ".vc", ".tt", ".us");
 
 
     /**
@@ -118,12 +117,7 @@ public class ProdNameCategoryTextFileExporter {
     }
 
     private boolean isValidHost(String host) {
-        for (String d : validDomains) {
-            if (host.endsWith(d))
-                return true;
-        }
-
-        return false;
+        return DomainFilter.ENGLISH_SPEAKING.matchesSuffix(host);
     }
 
     private int exportRecord(SolrDocument d,
@@ -165,22 +159,22 @@ public class ProdNameCategoryTextFileExporter {
     }
 
     private String cleanCatData(String value) {
-        value = StringEscapeUtils.unescapeJava(value);
+        TextNormaliser normaliser = TextNormaliser.instance();
+        value = TextNormaliser.unescapeJava(value);
         if (value.contains("http://") || value.contains("https://"))
             return null;
         String asciiValue = toASCII(value);
-        asciiValue = asciiValue.replaceAll("set=", "/");
+        asciiValue = asciiValue.replace("set=", "/");
 
-        String alphanumeric = asciiValue.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}\\|\\>/]", " ").
-                replaceAll("\\s+", " ").toLowerCase().trim();
+        String alphanumeric = normaliser.keepAlphanumeric(asciiValue, "|>/").toLowerCase();
         //value= StringUtils.stripAccents(value);
 
         int nums = Util.replacePatterns(alphanumeric, Util.numericP);
         int an = Util.replacePatterns(alphanumeric, Util.alphanumP);
         int num_or_an = nums + an;
 
-        String alphanumeric_clean = alphanumeric.replaceAll(Util.alphanum, "LETTERNUMBER");
-        alphanumeric_clean = alphanumeric_clean.replaceAll(Util.numeric, "NUMBER");
+        String alphanumeric_clean = Util.alphanumP.matcher(alphanumeric).replaceAll("LETTERNUMBER");
+        alphanumeric_clean = Util.numericP.matcher(alphanumeric_clean).replaceAll("NUMBER");
 
 
         //value= StringUtils.stripAccents(value);
@@ -198,28 +192,26 @@ public class ProdNameCategoryTextFileExporter {
         String[] pathElements = alphanumeric_clean.split("[\\|\\>/\\-]+");
         StringBuilder sb = new StringBuilder();
         for (String path : pathElements) {
-            path = path.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}]", " ").
-                    replaceAll("\\s+", " ").toLowerCase().trim();
+            path = normaliser.keepAlphanumeric(path, "").toLowerCase();
             if (path.length() > 2)
-                sb.append(path.replaceAll("\\s+", "_")).append(" ");
+                sb.append(path.replace(' ', '_')).append(" ");
         }
         return sb.toString().trim();
         //return alphanumeric.trim();
     }
 
     private String cleanNameData(String value) {
-        value = StringEscapeUtils.unescapeJava(value);
+        value = TextNormaliser.unescapeJava(value);
         String asciiValue = toASCII(value);
-        String alphanumeric = asciiValue.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}]", " ").
-                replaceAll("\\s+", " ").trim().toLowerCase();
+        String alphanumeric = TextNormaliser.instance().keepAlphanumeric(asciiValue, "").toLowerCase();
         //value= StringUtils.stripAccents(value);
 
         int nums = Util.replacePatterns(alphanumeric, Util.numericP);
         int an = Util.replacePatterns(alphanumeric, Util.alphanumP);
         int num_or_an = nums + an;
 
-        String alphanumeric_clean = alphanumeric.replaceAll(Util.alphanum, "LETTERNUMBER");
-        alphanumeric_clean = alphanumeric_clean.replaceAll(Util.numeric, "NUMBER");
+        String alphanumeric_clean = Util.alphanumP.matcher(alphanumeric).replaceAll("LETTERNUMBER");
+        alphanumeric_clean = Util.numericP.matcher(alphanumeric_clean).replaceAll("NUMBER");
 
         List<String> tokens = Arrays.asList(alphanumeric_clean.split("\\s+"));
         if (tokens.size() > 10 || tokens.size() < 2)
@@ -233,8 +225,7 @@ public class ProdNameCategoryTextFileExporter {
     }
 
     private static String toASCII(String in) {
-        String fold = in.replaceAll("[^\\p{ASCII}]", "").replaceAll("\\s+", " ").trim();
-        return fold;
+        return TextNormaliser.instance().toASCII(in);
     }
 
     private SolrQuery createQuery(int resultBatchSize, int start) {
@@ -0,0 +1,476 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Adds documents to a solr index in batches, from a bounded queue emptied by flusher threads, so the callers do not
+ * wait for solr (unless the queue is full). Used by all the indexers and exporters writing to solr.
+ * <p>
+ * A batch is sent once it has the current batch size of documents, reaches the maximum size in bytes (estimated
+ * from the field values), or its first document has waited for the maximum delay. The batch size adapts to how long
+ * solr takes to add a batch: it grows while adds are well under the target latency and shrinks when they go over it.
+ * <p>
+ * Documents are added asynchronously, so a failed add is only logged, and counted in {@link #stats()}. When a batch
+ * fails, it is sent again in halves, down to single documents, so only the documents solr rejects are lost; their
+ * ids are listed by {@link #close()}. Callers that need to know if their documents made it add them with a
+ * {@link Ticket}. If adding a batch throws an Error (e.g., out of memory), the documents of the batch not added yet
+ * count as failed and the flushers carry on, but the next {@link #add}, {@link #flush()} or {@link #close()} throws
+ * an IOException caused by it. {@link #commit()} flushes the queue before
+ * committing. Subclasses can send the batches elsewhere by overriding {@link #write(List)} (see LuceneDirectWriter).
+ */
+public class BatchingSolrWriter implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(BatchingSolrWriter.class.getName());
+
+    private final SolrClient client;
+    private final BlockingQueue<Pending> queue;
+    private final List<Thread> flushers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private volatile int minBatchDocs = 500;
+    private volatile int maxBatchDocs = 50000;
+    private volatile int batchDocs = 10000;
+    private volatile long maxBatchBytes = 32L << 20;
+    private volatile long maxDelayMs = 5000;
+    private volatile long targetLatencyMs = 1000;
+
+    //documents queued and not sent yet, and the callers of flush() waiting for it to be 0
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicInteger flushWaiters = new AtomicInteger();
+    private final Object flushed = new Object();
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong addNanos = new AtomicLong();
+    //the first Error a flusher got while adding a batch, given to the callers
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    //ids of the first documents that could not be added, reported on close
+    private final List<Object> failedIds = Collections.synchronizedList(new ArrayList<>());
+    private static final int MAX_FAILED_IDS = 100;
+
+    //only set if the writer reports to a MetricRegistry
+    private volatile Timer addTimer;
+    private volatile Histogram batchSizes;
+    private volatile Meter addedMeter;
+    private volatile Meter failedMeter;
+
+    /**
+     * a writer with 2 flushers and room for 50000 queued documents
+     */
+    public BatchingSolrWriter(SolrClient client) {
+        this(client, 2, 50000);
+    }
+
+    /**
+     * @param flushers  threads sending batches to solr concurrently
+     * @param queueDocs capacity of the queue, in documents
+     */
+    public BatchingSolrWriter(SolrClient client, int flushers, int queueDocs) {
+        this.client = client;
+        this.queue = new ArrayBlockingQueue<>(queueDocs);
+        for (int i = 0; i < flushers; i++) {
+            Thread t = new Thread(this::flushLoop, "solr-flusher-" + i);
+            t.setDaemon(true);
+            this.flushers.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * @param min     the batch size never goes under this
+     * @param initial the batch size until add latencies are known
+     * @param max     the batch size never goes over this
+     */
+    public void setBatchDocs(int min, int initial, int max) {
+        this.minBatchDocs = min;
+        this.maxBatchDocs = max;
+        this.batchDocs = Math.max(min, Math.min(initial, max));
+    }
+
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public void setMaxDelayMs(long maxDelayMs) {
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public void setTargetLatencyMs(long targetLatencyMs) {
+        this.targetLatencyMs = targetLatencyMs;
+    }
+
+    /**
+     * reports to the registry, under name.*: documents added and failed (meters), the latency of adding a batch
+     * (timer) and the number of documents per batch (histogram), the depth of the queue and the current batch size
+     * (gauges)
+     */
+    public void setMetrics(MetricRegistry registry, String name) {
+        registry.remove(name + ".queue");
+        registry.register(name + ".queue", (Gauge<Integer>) queue::size);
+        registry.remove(name + ".batchSize");
+        registry.register(name + ".batchSize", (Gauge<Integer>) () -> batchDocs);
+        addedMeter = registry.meter(name + ".added");
+        failedMeter = registry.meter(name + ".failed");
+        batchSizes = registry.histogram(name + ".batchDocs");
+        addTimer = registry.timer(name + ".add");
+    }
+
+    public void add(SolrInputDocument doc) throws IOException {
+        add(doc, null);
+    }
+
+    public void add(Collection<SolrInputDocument> docs) throws IOException {
+        add(docs, null);
+    }
+
+    public void add(Collection<SolrInputDocument> docs, Ticket ticket) throws IOException {
+        for (SolrInputDocument doc : docs)
+            add(doc, ticket);
+    }
+
+    /**
+     * @param ticket if not null, told once the document is sent (see {@link #ticket()})
+     */
+    public void add(SolrInputDocument doc, Ticket ticket) throws IOException {
+        if (!running)
+            throw new IllegalStateException("the writer is closed");
+        checkError();
+        if (ticket != null)
+            ticket.pending.incrementAndGet();
+        outstanding.incrementAndGet();
+        try {
+            queue.put(new Pending(doc, estimateBytes(doc), ticket));
+        } catch (InterruptedException e) {
+            outstanding.decrementAndGet();
+            if (ticket != null)
+                ticket.done(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while queueing a document");
+        }
+    }
+
+    /**
+     * @return a ticket to add documents with, to know if they were all added once they are sent
+     */
+    public Ticket ticket() {
+        return new Ticket();
+    }
+
+    /**
+     * waits until every document queued is sent to solr, including those queued by other threads meanwhile
+     */
+    public void flush() throws IOException {
+        awaitSent();
+        checkError();
+    }
+
+    private void awaitSent() throws IOException {
+        flushWaiters.incrementAndGet();
+        try {
+            synchronized (flushed) {
+                while (outstanding.get() > 0)
+                    flushed.wait(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while flushing");
+        } finally {
+            flushWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * flushes the queue, then commits
+     */
+    public void commit() throws IOException, SolrServerException {
+        flush();
+        client.commit();
+    }
+
+    /**
+     * flushes the queue and stops the flushers, the solr client is left open. If documents could not be added, their
+     * number and (the first) ids are reported as a warning; if a flusher got an Error, it is thrown (in an
+     * IOException) once the flushers are stopped
+     */
+    @Override
+    public void close() throws IOException {
+        if (!running)
+            return;
+        awaitSent();
+        running = false;
+        for (Thread t : flushers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while stopping the flushers");
+            }
+        }
+        LOG.info(stats());
+        if (failed.get() > 0) {
+            synchronized (failedIds) {
+                LOG.warn(String.format("%d documents could not be added, ids%s: %s", failed.get(),
+                        failed.get() > failedIds.size() ? " of the first " + failedIds.size() : "", failedIds));
+            }
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        Throwable e = error.get();
+        if (e != null)
+            throw new IOException("A solr writer flusher failed, documents were not added", e);
+    }
+
+    public SolrClient getClient() {
+        return client;
+    }
+
+    public long getAdded() {
+        return added.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public String stats() {
+        long n = batches.get();
+        return String.format("Solr writer: %d documents added, %d failed, in %d batches (avg. %.1f ms per batch), " +
+                        "current batch size %d, queued %d",
+                added.get(), failed.get(), n, n == 0 ? 0.0 : addNanos.get() / 1e6 / n, batchDocs, queue.size());
+    }
+
+    private void flushLoop() {
+        List<Pending> batch = new ArrayList<>();
+        long bytes = 0;
+        long deadline = 0;
+        while (running || !batch.isEmpty() || !queue.isEmpty()) {
+            try {
+                long wait = batch.isEmpty() ? 100 : deadline - System.currentTimeMillis();
+                Pending p = wait > 0 ? queue.poll(Math.min(wait, 100), TimeUnit.MILLISECONDS) : queue.poll();
+                if (p != null) {
+                    if (batch.isEmpty())
+                        deadline = System.currentTimeMillis() + maxDelayMs;
+                    batch.add(p);
+                    bytes += p.bytes;
+                    int size = batchDocs;
+                    while (batch.size() < size && bytes < maxBatchBytes && (p = queue.poll()) != null) {
+                        batch.add(p);
+                        bytes += p.bytes;
+                    }
+                }
+                if (batch.isEmpty())
+                    continue;
+                boolean full = batch.size() >= batchDocs || bytes >= maxBatchBytes;
+                boolean due = System.currentTimeMillis() >= deadline
+                        || ((flushWaiters.get() > 0 || !running) && queue.isEmpty());
+                if (full || due) {
+                    send(batch);
+                    batch.clear();
+                    bytes = 0;
+                }
+            } catch (InterruptedException e) {
+                //only stops once the queue is empty
+            }
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        List<SolrInputDocument> docs = new ArrayList<>(batch.size());
+        for (Pending p : batch)
+            docs.add(p.doc);
+        boolean[] ok = new boolean[docs.size()];
+        boolean batchOk = false;
+        long start = System.nanoTime();
+        try {
+            try {
+                write(docs);
+                batchOk = true;
+                Arrays.fill(ok, true);
+            } catch (Exception e) {
+                LOG.warn(String.format("\t\tunable to add a batch of %d documents, sending it again in parts: %s",
+                        docs.size(), ExceptionUtils.getFullStackTrace(e)));
+                writeInParts(docs, 0, docs.size(), ok);
+            }
+        } catch (Error e) {
+            //the documents not added yet count as failed, and the callers get the error
+            error.compareAndSet(null, e);
+            LOG.error(String.format("\t\tunable to add a batch of %d documents: %s",
+                    docs.size(), ExceptionUtils.getFullStackTrace(e)));
+        } finally {
+            //whatever happened, the batch is done with, so flush() and close() do not wait for it
+            try {
+                sent(batch, ok, batchOk, System.nanoTime() - start);
+            } finally {
+                if (outstanding.addAndGet(-docs.size()) == 0) {
+                    synchronized (flushed) {
+                        flushed.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * counts the documents of the batch added and failed, and tells their tickets
+     */
+    private void sent(List<Pending> batch, boolean[] ok, boolean batchOk, long nanos) {
+        int okDocs = 0;
+        for (boolean b : ok) {
+            if (b)
+                okDocs++;
+        }
+        added.addAndGet(okDocs);
+        failed.addAndGet(batch.size() - okDocs);
+        batches.incrementAndGet();
+        addNanos.addAndGet(nanos);
+        if (addTimer != null) {
+            addTimer.update(nanos, TimeUnit.NANOSECONDS);
+            batchSizes.update(batch.size());
+            addedMeter.mark(okDocs);
+            failedMeter.mark(batch.size() - okDocs);
+        }
+        if (batchOk)
+            adapt(batch.size(), nanos / 1000000);
+        for (int i = 0; i < batch.size(); i++) {
+            Pending p = batch.get(i);
+            if (p.ticket == null)
+                continue;
+            try {
+                p.ticket.done(ok[i]);
+            } catch (RuntimeException e) {
+                LOG.warn(String.format("\t\tticket callback failed: %s", ExceptionUtils.getFullStackTrace(e)));
+            }
+        }
+    }
+
+    /**
+     * sends docs[from, to) again after their batch failed, splitting them in halves as long as a part fails, so only
+     * the documents that fail on their own are not added
+     */
+    private void writeInParts(List<SolrInputDocument> docs, int from, int to, boolean[] ok) {
+        try {
+            write(docs.subList(from, to));
+            Arrays.fill(ok, from, to, true);
+        } catch (Exception e) {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                writeInParts(docs, from, middle, ok);
+                writeInParts(docs, middle, to, ok);
+                return;
+            }
+            Object id = docs.get(from).getFieldValue("id");
+            LOG.warn(String.format("\t\tunable to add document %s: %s", id, ExceptionUtils.getRootCauseMessage(e)));
+            synchronized (failedIds) {
+                if (failedIds.size() < MAX_FAILED_IDS)
+                    failedIds.add(id);
+            }
+        }
+    }
+
+    /**
+     * adds a batch to solr, called by the flusher threads. A batch that fails may be written again in parts, so a
+     * document must not be added twice when written again (solr replaces documents of the same id)
+     */
+    protected void write(List<SolrInputDocument> docs) throws IOException, SolrServerException {
+        client.add(docs);
+    }
+
+    /**
+     * only full batches tell if the batch size suits solr
+     */
+    private void adapt(int size, long latencyMs) {
+        int current = batchDocs;
+        if (size < current)
+            return;
+        if (latencyMs > targetLatencyMs)
+            batchDocs = Math.max(minBatchDocs, current * 3 / 4);
+        else if (latencyMs < targetLatencyMs / 2)
+            batchDocs = Math.min(maxBatchDocs, current + current / 4);
+    }
+
+    /**
+     * rough size of the document: characters of the names and text values, 8 bytes for any other value
+     */
+    private static long estimateBytes(SolrInputDocument doc) {
+        long bytes = 0;
+        for (SolrInputField f : doc) {
+            bytes += f.getName().length();
+            for (Object v : f) {
+                if (v instanceof CharSequence)
+                    bytes += ((CharSequence) v).length();
+                else
+                    bytes += 8;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * tracks a group of documents, e.g., those of one input file, until they are all sent
+     */
+    public static class Ticket {
+        //one hold is kept until close() is called
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile boolean failed;
+        private volatile Consumer<Boolean> onSent;
+
+        /**
+         * no more documents are added with this ticket
+         *
+         * @param onSent called once all the documents of the ticket are sent, with true if they were all added.
+         *               It runs on a flusher thread, or on the calling one if they are already sent
+         */
+        public void close(Consumer<Boolean> onSent) {
+            this.onSent = onSent;
+            done(true);
+        }
+
+        private void done(boolean ok) {
+            if (!ok)
+                failed = true;
+            if (pending.decrementAndGet() == 0 && onSent != null)
+                onSent.accept(!failed);
+        }
+    }
+
+    private static class Pending {
+        private final SolrInputDocument doc;
+        private final long bytes;
+        private final Ticket ticket;
+
+        private Pending(SolrInputDocument doc, long bytes, Ticket ticket) {
+            this.doc = doc;
+            this.bytes = bytes;
+            this.ticket = ticket;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the lines of a gz entry, with the decompression done ahead of the caller by another thread. Decompressed
+ * data is passed over in large buffers, which are reused by the next entries, and lines are cut straight from the
+ * bytes of these buffers (no InputStreamReader in between). Lines are decoded with the default charset and end at
+ * \n, \r or \r\n, the same as a BufferedReader over an InputStreamReader gives.
+ * <p>
+ * If inflaters are set (see {@link #setInflaters(int)}) and the entry is a multi-member gzip whose members carry
+ * their size in the header (BGZF, as written by bgzip), members are inflated in parallel by these threads. Any
+ * other gz file is inflated sequentially by the read-ahead thread.
+ * <p>
+ * Not thread safe: one thread reads the lines. Must be closed, or the read-ahead thread stays blocked.
+ */
+public class GzipLineReader implements Closeable {
+
+    static final int BUFFER_SIZE = 1 << 20;
+    //decompressed buffers queued ahead of the reader of the lines
+    private static final int READ_AHEAD = 4;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final int BGZF_HEADER = 18;
+    private static final int BGZF_TRAILER = 8;
+    private static final int BGZF_MAX_SIZE = 1 << 16;
+
+    private static final Block END = new Block(null, 0);
+
+    private static final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+    private static final ExecutorService readAheadThreads = Executors.newCachedThreadPool(daemon("gzip-read-ahead"));
+    private static volatile ExecutorService inflaters;
+    private static volatile int inflaterCount;
+
+    private final Charset charset = Charset.defaultCharset();
+    private BlockingQueue<Future<Block>> blocks;
+    private Future<?> producer;
+    private volatile boolean closed;
+    private BufferedReader fallback;
+
+    private Block current;
+    private int pos;
+    private boolean eof;
+    private boolean skipLF;
+    private byte[] line = new byte[1024];
+
+    public GzipLineReader(InputStream compressed) throws IOException {
+        if (!isAsciiCompatible(charset)) {
+            //lines can not be cut from the bytes
+            fallback = new BufferedReader(new InputStreamReader(new GZIPInputStream(compressed)));
+            return;
+        }
+        ExecutorService pool = inflaters;
+        blocks = new ArrayBlockingQueue<>(pool == null ? READ_AHEAD : Math.max(READ_AHEAD, 2 * inflaterCount));
+        producer = readAheadThreads.submit(() -> inflate(compressed, pool));
+    }
+
+    /**
+     * @param threads number of threads inflating the members of BGZF files in parallel, shared by all readers;
+     *                0 or 1 for none
+     */
+    public static synchronized void setInflaters(int threads) {
+        if (inflaters != null)
+            inflaters.shutdown();
+        inflaterCount = threads;
+        inflaters = threads > 1 ? Executors.newFixedThreadPool(threads, daemon("gzip-inflater")) : null;
+    }
+
+    /**
+     * @return the next line, without its line terminator, or null at the end of the entry
+     */
+    public String readLine() throws IOException {
+        if (fallback != null)
+            return fallback.readLine();
+        int lineLength = 0;
+        while (true) {
+            if (current == null || pos >= current.length) {
+                if (!nextBlock())
+                    return lineLength > 0 ? new String(line, 0, lineLength, charset) : null;
+                if (skipLF) {
+                    skipLF = false;
+                    if (current.data[pos] == '\n')
+                        pos++;
+                    continue;
+                }
+            }
+            byte[] data = current.data;
+            int end = current.length;
+            for (int i = pos; i < end; i++) {
+                byte b = data[i];
+                if (b == '\n' || b == '\r') {
+                    String s;
+                    if (lineLength == 0) {
+                        s = new String(data, pos, i - pos, charset);
+                    } else {
+                        lineLength = append(lineLength, data, pos, i - pos);
+                        s = new String(line, 0, lineLength, charset);
+                    }
+                    pos = i + 1;
+                    if (b == '\r') {
+                        if (pos < end) {
+                            if (data[pos] == '\n')
+                                pos++;
+                        } else {
+                            skipLF = true;
+                        }
+                    }
+                    return s;
+                }
+            }
+            //the line goes on in the next block
+            lineLength = append(lineLength, data, pos, end - pos);
+            pos = end;
+        }
+    }
+
+    private int append(int lineLength, byte[] data, int from, int length) {
+        if (lineLength + length > line.length)
+            line = Arrays.copyOf(line, Math.max(lineLength + length, line.length * 2));
+        System.arraycopy(data, from, line, lineLength, length);
+        return lineLength + length;
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (eof)
+            return false;
+        if (current != null)
+            releaseBuffer(current.data);
+        current = null;
+        pos = 0;
+        Block block;
+        try {
+            block = blocks.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the read-ahead thread");
+        } catch (ExecutionException e) {
+            eof = true;
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        if (block == END) {
+            eof = true;
+            return false;
+        }
+        current = block;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fallback != null) {
+            fallback.close();
+            return;
+        }
+        closed = true;
+        blocks.clear();
+        if (current != null)
+            releaseBuffer(current.data);
+        current = null;
+        eof = true;
+        try {
+            //it gives up queueing blocks once closed
+            producer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            //already reported to the reader of the lines, if it got that far
+        }
+    }
+
+    /**
+     * runs on the read-ahead thread
+     */
+    private void inflate(InputStream compressed, ExecutorService pool) {
+        try (PushbackInputStream in = new PushbackInputStream(compressed, BGZF_HEADER)) {
+            if (pool != null && isBgzf(in))
+                inflateMembers(in, pool);
+            else
+                inflateSequentially(new GZIPInputStream(in, 1 << 16));
+            queue(CompletableFuture.completedFuture(END));
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<Block> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            queue(failed);
+        }
+    }
+
+    private void inflateSequentially(InputStream in) throws IOException {
+        while (!closed) {
+            byte[] buf = takeBuffer();
+            int n = 0, r;
+            while (n < buf.length && (r = in.read(buf, n, buf.length - n)) > 0)
+                n += r;
+            if (n == 0) {
+                releaseBuffer(buf);
+                return;
+            }
+            queue(CompletableFuture.completedFuture(new Block(buf, n)));
+            if (n < buf.length)
+                return;
+        }
+    }
+
+    /**
+     * reads the members of a BGZF file and hands groups of them, filling a buffer once inflated, to the inflaters
+     */
+    private void inflateMembers(InputStream in, ExecutorService pool) throws IOException {
+        while (!closed) {
+            List<byte[]> members = new ArrayList<>();
+            int size = 0;
+            byte[] member;
+            while (size + BGZF_MAX_SIZE <= BUFFER_SIZE && (member = readMember(in)) != null) {
+                members.add(member);
+                size += intLE(member, member.length - 4);
+            }
+            if (members.isEmpty())
+                return;
+            int total = size;
+            queue(pool.submit(() -> inflate(members, total)));
+        }
+    }
+
+    private static Block inflate(List<byte[]> members, int total) throws IOException {
+        byte[] buf = takeBuffer();
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            int off = 0;
+            for (byte[] m : members) {
+                int isize = intLE(m, m.length - 4);
+                inflater.reset();
+                inflater.setInput(m, BGZF_HEADER, m.length - BGZF_HEADER - BGZF_TRAILER);
+                int n = 0;
+                while (n < isize && !inflater.finished()) {
+                    int r = inflater.inflate(buf, off + n, isize - n);
+                    if (r == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new EOFException("truncated BGZF member");
+                    n += r;
+                }
+                crc.reset();
+                crc.update(buf, off, n);
+                if (n != isize || (int) crc.getValue() != intLE(m, m.length - BGZF_TRAILER))
+                    throw new ZipException("corrupt BGZF member (bad size or CRC)");
+                off += n;
+            }
+            return new Block(buf, total);
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return true if the stream starts with a gzip header carrying the BGZF block size
+     */
+    private static boolean isBgzf(PushbackInputStream in) throws IOException {
+        byte[] header = new byte[BGZF_HEADER];
+        int n = readFully(in, header, 0, BGZF_HEADER);
+        in.unread(header, 0, n);
+        return n == BGZF_HEADER && isBgzfHeader(header);
+    }
+
+    private static boolean isBgzfHeader(byte[] h) {
+        return (h[0] & 0xff) == 0x1f && (h[1] & 0xff) == 0x8b && h[2] == 8 && (h[3] & 0x04) != 0
+                && h[10] == 6 && h[11] == 0 && h[12] == 'B' && h[13] == 'C' && h[14] == 2 && h[15] == 0;
+    }
+
+    /**
+     * @return the next member, header and trailer included, or null at the end of the file
+     */
+    private static byte[] readMember(InputStream in) throws IOException {
+        byte[] header = new byte[BGZF_HEADER];
+        int n = readFully(in, header, 0, BGZF_HEADER);
+        if (n == 0)
+            return null;
+        if (n < BGZF_HEADER || !isBgzfHeader(header))
+            throw new ZipException("not a BGZF member");
+        int size = ((header[16] & 0xff) | (header[17] & 0xff) << 8) + 1;
+        if (size < BGZF_HEADER + BGZF_TRAILER)
+            throw new ZipException("bad BGZF member size " + size);
+        byte[] member = Arrays.copyOf(header, size);
+        if (readFully(in, member, BGZF_HEADER, size - BGZF_HEADER) < size - BGZF_HEADER)
+            throw new EOFException("truncated BGZF member");
+        return member;
+    }
+
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int n = 0, r;
+        while (n < len && (r = in.read(b, off + n, len - n)) > 0)
+            n += r;
+        return n;
+    }
+
+    private static int intLE(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    /**
+     * waits for room in the queue, unless the reader of the lines is gone
+     */
+    private void queue(Future<Block> block) {
+        try {
+            while (!closed) {
+                if (blocks.offer(block, 100, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] takeBuffer() {
+        byte[] buf = freeBuffers.poll();
+        if (buf == null)
+            return new byte[BUFFER_SIZE];
+        pooledBuffers.decrementAndGet();
+        return buf;
+    }
+
+    private static void releaseBuffer(byte[] buf) {
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS)
+            freeBuffers.offer(buf);
+        else
+            pooledBuffers.decrementAndGet();
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] b = "\n\r{}\"".getBytes(charset);
+        return b.length == 5 && b[0] == '\n' && b[1] == '\r' && b[2] == '{' && b[3] == '}' && b[4] == '"';
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static class Block {
+        private final byte[] data;
+        private final int length;
+
+        private Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
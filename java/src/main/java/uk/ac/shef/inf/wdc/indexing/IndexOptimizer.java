@@ -8,6 +8,9 @@ import org.apache.solr.core.CoreContainer;
 import java.io.IOException;
 import java.util.Date;
 
+/**
+ * args[0]: solr home, args[1]: core, args[2] (optional): number of segments to merge the index down to, 1 by default
+ */
 public class IndexOptimizer {
 
     public static void main(String[] args) throws IOException, SolrServerException {
@@ -17,7 +20,7 @@ public class IndexOptimizer {
         SolrClient entitiesCoreClient = new EmbeddedSolrServer(solrContainer.getCore(args[1]));
 
         System.out.println(String.format("Optimising the index ... %s", new Date().toString()));
-        entitiesCoreClient.optimize();
+        SolrBulkLoad.finalCommit(entitiesCoreClient, args.length > 2 ? Integer.valueOf(args[2]) : 1);
         entitiesCoreClient.close();
         System.exit(0);
     }
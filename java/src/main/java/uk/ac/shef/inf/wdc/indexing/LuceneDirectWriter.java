@@ -0,0 +1,140 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.update.DocumentBuilder;
+import org.apache.solr.util.RefCounted;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A BatchingSolrWriter for one-off bulk builds of a core, which skips the solr update chain (update processors,
+ * version field, transaction log). Every flusher thread turns its batches into Lucene documents with the schema of the
+ * core (DocumentBuilder, so copy fields and field types are those solr would use) and adds them to its own
+ * IndexWriter, over a temporary folder of the core's data dir and configured like the core's writer. On
+ * {@link #commit()} and {@link #close()}, these indexes are added to the core's index with addIndexes, so the core
+ * opens the result as-is.
+ * <p>
+ * Documents are added, not updated: one whose id is already in the core is not replaced. Documents are only in the
+ * core, and visible to its commits, once commit() or close() is called, so a ticket is told its documents were sent
+ * before that.
+ */
+public class LuceneDirectWriter extends BatchingSolrWriter {
+
+    private static final Logger LOG = Logger.getLogger(LuceneDirectWriter.class.getName());
+
+    private final SolrCore core;
+    private final IndexSchema schema;
+    private final int threads;
+
+    //the writer of each flusher thread; a write lock is taken to add them to the core
+    private final Map<Thread, IndexWriter> writers = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger folders = new AtomicInteger();
+
+    /**
+     * @param client  client of the core, used to commit
+     * @param threads flusher threads, each writing its own index
+     */
+    public LuceneDirectWriter(SolrClient client, SolrCore core, int threads, int queueDocs) {
+        super(client, threads, queueDocs);
+        this.core = core;
+        this.schema = core.getLatestSchema();
+        this.threads = threads;
+    }
+
+    @Override
+    protected void write(List<SolrInputDocument> docs) throws IOException {
+        List<Document> luceneDocs = new ArrayList<>(docs.size());
+        for (SolrInputDocument doc : docs)
+            luceneDocs.add(DocumentBuilder.toDocument(doc, schema));
+        lock.readLock().lock();
+        try {
+            IndexWriter writer = writers.get(Thread.currentThread());
+            if (writer == null) {
+                writer = openWriter();
+                writers.put(Thread.currentThread(), writer);
+            }
+            //all or none of them, so a failed batch can be written again without adding documents twice
+            writer.addDocuments(luceneDocs);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * flushes the queue, adds what was written to the core's index and commits it
+     */
+    @Override
+    public void commit() throws IOException, SolrServerException {
+        flush();
+        addToCore();
+        getClient().commit();
+    }
+
+    /**
+     * flushes the queue, stops the flushers and adds what was written to the core's index, which is left uncommitted
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        addToCore();
+    }
+
+    private IndexWriter openWriter() throws IOException {
+        File folder = new File(core.getDataDir(), "direct_" + folders.incrementAndGet());
+        FileUtils.deleteDirectory(folder);
+        IndexWriterConfig config = core.getSolrConfig().indexConfig.toIndexWriterConfig(core);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setRAMBufferSizeMB(Math.max(16, config.getRAMBufferSizeMB() / threads));
+        return new IndexWriter(FSDirectory.open(folder.toPath()), config);
+    }
+
+    private void addToCore() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (writers.isEmpty())
+                return;
+            long start = System.currentTimeMillis();
+            List<Directory> indexes = new ArrayList<>();
+            for (IndexWriter w : writers.values()) {
+                w.close();
+                indexes.add(w.getDirectory());
+            }
+            writers.clear();
+            RefCounted<IndexWriter> coreWriter = core.getSolrCoreState().getIndexWriter(core);
+            try {
+                coreWriter.get().addIndexes(indexes.toArray(new Directory[0]));
+            } finally {
+                coreWriter.decref();
+            }
+            for (Directory d : indexes) {
+                File folder = ((FSDirectory) d).getDirectory().toFile();
+                d.close();
+                FileUtils.deleteDirectory(folder);
+            }
+            LOG.info(String.format("Added %d indexes to core %s in %d ms",
+                    indexes.size(), core.getName(), System.currentTimeMillis() - start));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
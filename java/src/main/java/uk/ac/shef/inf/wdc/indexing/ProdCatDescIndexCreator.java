@@ -10,7 +10,6 @@ import com.optimaize.langdetect.profiles.LanguageProfileReader;
 import com.optimaize.langdetect.text.CommonTextObjectFactories;
 import com.optimaize.langdetect.text.TextObject;
 import com.optimaize.langdetect.text.TextObjectFactory;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -22,6 +21,9 @@ import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import uk.ac.shef.inf.wdc.DomainFilter;
+import uk.ac.shef.inf.wdc.text.TextNormaliser;
 
 import java.io.File;
 import java.io.IOException;
@@ -45,9 +47,6 @@ public class ProdCatDescIndexCreator {
 
     private static List<String> stopwords = Arrays.asList("product", "home", "null");
 
-    public static List<String> validDomains = Arrays.asList(".uk", ".com", ".net", ".org", ".au", ".ag",
-            ".bs", ".bb", ".ca", ".do", ".gd", ".gy", ".ie", ".jm", ".nz", ".kn", ".lc", ".vc", ".tt", ".us");
-
     private LanguageDetector languageDetector;
     private TextObjectFactory textObjectFactory;
 
@@ -84,7 +83,7 @@ public class ProdCatDescIndexCreator {
     }
 
     private void export(SolrClient prodTripleIndex, String prodTripleIndexID, int resultBatchSize,
-                        SolrClient prodCatDescIndex) {
+                        BatchingSolrWriter prodCatDescIndex) {
         int start = 0;
         SolrQuery q = createQuery(resultBatchSize, start);
         QueryResponse res;
@@ -114,7 +113,7 @@ public class ProdCatDescIndexCreator {
                 prodCatDescIndex.commit();
 
                 LOG.info(String.format("\ttotal in this batch = %d, index size now=%d",
-                        count, countIndexSize(prodCatDescIndex)));
+                        count, countIndexSize(prodCatDescIndex.getClient())));
             } catch (Exception e) {
                 LOG.warn(String.format("\t\t unable to successfully index product triples starting from index %d, with batch size %d. Due to error: %s",
                         start, resultBatchSize,
@@ -132,7 +131,7 @@ public class ProdCatDescIndexCreator {
         try {
             prodCatDescIndex.commit();
             LOG.info(String.format("Recorded=%d, index size=%d",
-                    count, countIndexSize(prodCatDescIndex)));
+                    count, countIndexSize(prodCatDescIndex.getClient())));
         } catch (Exception e) {
             LOG.warn(String.format("\t\t unable to shut down servers due to error: %s",
                     ExceptionUtils.getFullStackTrace(e)));
@@ -153,7 +152,7 @@ public class ProdCatDescIndexCreator {
 discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Pedals
      */
     private int createRecord(String prodTripleIndexID,
-                             SolrDocument d, SolrClient prodcatIndex, long curr) throws IOException, SolrServerException {
+                             SolrDocument d, BatchingSolrWriter prodcatIndex, long curr) throws IOException {
         String id = d.getFieldValue("id").toString();
         String h = d.getFieldValue("source_host").toString();
 
@@ -164,19 +163,20 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
         String url = d.getFieldValue("source_page").toString();
         SolrInputDocument doc = new SolrInputDocument();
         int added = 0;
+        TextNormaliser normaliser = TextNormaliser.instance();
 
         String name = null;
         if (d.getFieldValue("sg-product_name") != null)
-            name = d.getFieldValue("sg-product_name").toString().replaceAll("\\s+", " ").trim();
+            name = normaliser.collapseWhitespace(d.getFieldValue("sg-product_name").toString());
         else if (d.getFieldValue("sg-offer_name") != null)
-            name = d.getFieldValue("sg-offer_name").toString().replaceAll("\\s+", " ").trim();
+            name = normaliser.collapseWhitespace(d.getFieldValue("sg-offer_name").toString());
 
         if (name != null) {
             String cat = null;
             if (d.getFieldValue("sg-product_category") != null)
-                cat = d.getFieldValue("sg-product_category").toString().replaceAll("\\s+", " ").trim();
+                cat = normaliser.collapseWhitespace(d.getFieldValue("sg-product_category").toString());
             else if (d.getFieldValue("sg-offer_category") != null)
-                cat = d.getFieldValue("sg-offer_category").toString().replaceAll("\\s+", " ").trim();
+                cat = normaliser.collapseWhitespace(d.getFieldValue("sg-offer_category").toString());
 
             String desc = null;
             if (d.getFieldValue("sg-product_description") != null)
@@ -191,7 +191,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
             if (cat != null)
                 cat = cleanName(cat);
             if (desc != null) {
-                desc = desc.replaceAll("\\s+", " ").trim();
+                desc = normaliser.collapseWhitespace(desc);
                 desc = cleanDesc(desc);
                 if (desc!=null && desc.equalsIgnoreCase("NE"))
                     return added;
@@ -223,16 +223,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
     }
 
     public static boolean checkHost(String host) {
-        for (String d : validDomains) {
-            if (host.endsWith(d))
-                return true;
-        }
-        return false;
-    }
-
-    private static String toASCII(String in) {
-        String fold = in.replaceAll("[^\\p{ASCII}]", "").replaceAll("\\s+", " ").trim();
-        return fold;
+        return DomainFilter.ENGLISH_SPEAKING.matchesSuffix(host);
     }
 
     /**
@@ -245,13 +236,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
         value = value.trim();
         if (value.startsWith("http"))
             return null;
-        value = StringEscapeUtils.unescapeJava(value).replaceAll("\\s+", " ");
-        value = StringUtils.stripAccents(value);
-
-        String asciiValue = toASCII(value);
-        String alphanumeric = asciiValue.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}]", " ").
-                replaceAll("\\s+", " ").trim().toLowerCase();
-        List<String> normTokens = Arrays.asList(alphanumeric.split("\\s+"));
+        String asciiValue = TextNormaliser.instance().foldToASCII(TextNormaliser.unescapeJava(value));
 
         if (stopwords.contains(asciiValue.toLowerCase()))
             return null;
@@ -272,13 +257,9 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
      * @return
      */
     private String cleanDesc(String value) {
-        value = StringEscapeUtils.unescapeJava(value).trim();
-        if (value==null){
-            return value;
-        }
-        value = value.replaceAll("\\s+", " ");
-        value = StringUtils.stripAccents(value);
-        String asciiValue = toASCII(value);
+        TextNormaliser normaliser = TextNormaliser.instance();
+        value = normaliser.collapseWhitespace(TextNormaliser.unescapeJava(value));
+        String asciiValue = normaliser.foldToASCII(value);
 
         if (stopwords.contains(asciiValue.toLowerCase()))
             return null;
@@ -291,7 +272,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
         if (asciiValue.startsWith(".") || asciiValue.startsWith("\\u"))
             return null;
 
-        TextObject textObject = textObjectFactory.forText(value);
+        TextObject textObject = textObjectFactory.forText(StringUtils.stripAccents(value));
         Optional<LdLocale> lang = languageDetector.detect(textObject);
         if (!lang.isPresent())
             return "NE";
@@ -305,7 +286,13 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
         File[] solrIndeces = new File(args[0]).listFiles();
         CoreContainer prodNCContainer = new CoreContainer(args[1]);
         prodNCContainer.load();
-        SolrClient prodNameCatDescIndex = new EmbeddedSolrServer(prodNCContainer.getCore("prodcatdesc"));
+        SolrCore prodNameCatDescCore = prodNCContainer.getCore("prodcatdesc");
+        SolrClient prodNameCatDescIndex = new EmbeddedSolrServer(prodNameCatDescCore);
+        //--direct after the other arguments skips the solr update chain (see LuceneDirectWriter)
+        BatchingSolrWriter prodNameCatDescWriter = WDCTableIndexerApp.parseOptions(args, 4).containsKey("direct")
+                ? new LuceneDirectWriter(prodNameCatDescIndex, prodNameCatDescCore,
+                Runtime.getRuntime().availableProcessors(), 50000)
+                : new BatchingSolrWriter(prodNameCatDescIndex);
         for (File f : solrIndeces) {
             String path = f.toString();
 
@@ -320,7 +307,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
 
 
                     ProdCatDescIndexCreator exporter = new ProdCatDescIndexCreator();
-                    exporter.export(prodTripleIndex, indexID, Integer.valueOf(args[2]), prodNameCatDescIndex);
+                    exporter.export(prodTripleIndex, indexID, Integer.valueOf(args[2]), prodNameCatDescWriter);
                     prodTripleIndex.close();
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -338,6 +325,7 @@ discarded pair=Dunlop 535Q Cry Baby Multi-Wah Pedal|Guitar Pedals | Effects Peda
         System.out.println(parsed);
 */
 
+        prodNameCatDescWriter.close();
         prodNameCatDescIndex.close();
         System.exit(0);
 
@@ -0,0 +1,132 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.util.RefCounted;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Builds a core as N shard cores filled in parallel, each with its own IndexWriter, so that indexing threads do not
+ * contend on the writer of a single core. The shards are cores [core]_shard[i] of the same solr home, created with
+ * a copy of the conf of the core if they do not exist yet (shards left by a run that did not complete are reused).
+ * <p>
+ * Once filled, the shards are either added to the core with addIndexes and deleted ({@link #mergeIntoTarget()}), or
+ * kept as they are for distributed querying ({@link #commit(int)}).
+ * <p>
+ * The clients of the shards must not be closed: closing an EmbeddedSolrServer shuts down the whole container.
+ */
+public class ShardedCoreBuild implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ShardedCoreBuild.class.getName());
+
+    private final CoreContainer container;
+    private final SolrCore target;
+    private final List<SolrCore> shards = new ArrayList<>();
+    private final List<SolrClient> clients = new ArrayList<>();
+
+    public ShardedCoreBuild(CoreContainer container, SolrCore target, int n) throws IOException {
+        this.container = container;
+        this.target = target;
+        for (int i = 0; i < n; i++) {
+            String name = target.getName() + "_shard" + i;
+            if (!container.isLoaded(name)) {
+                Path instance = Paths.get(container.getSolrHome(), name);
+                File conf = instance.resolve("conf").toFile();
+                if (!conf.exists())
+                    FileUtils.copyDirectory(new File(target.getResourceLoader().getConfigDir()), conf);
+                container.create(name, instance, Collections.emptyMap(), false);
+                LOG.info("Created shard core " + name);
+            }
+            SolrCore core = container.getCore(name);
+            shards.add(core);
+            clients.add(new EmbeddedSolrServer(core));
+        }
+    }
+
+    public List<SolrCore> getShards() {
+        return shards;
+    }
+
+    public List<SolrClient> getClients() {
+        return clients;
+    }
+
+    public String[] getShardNames() {
+        String[] names = new String[shards.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = shards.get(i).getName();
+        return names;
+    }
+
+    /**
+     * commits the shards that are kept, merging each down to maxSegments segments if it is more than 0
+     */
+    public void commit(int maxSegments) throws IOException, SolrServerException {
+        for (SolrClient c : clients)
+            SolrBulkLoad.finalCommit(c, maxSegments);
+    }
+
+    /**
+     * commits the shards, unloads them, adds their indexes to the target core (uncommitted) and deletes them
+     */
+    public void mergeIntoTarget() throws IOException, SolrServerException {
+        long start = System.currentTimeMillis();
+        List<Path> indexes = new ArrayList<>();
+        List<Path> instances = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            SolrCore core = shards.get(i);
+            clients.get(i).commit();
+            indexes.add(Paths.get(core.getIndexDir()));
+            instances.add(core.getResourceLoader().getInstancePath());
+            String name = core.getName();
+            //the core is closed, and its write lock released, once both references are gone
+            core.close();
+            container.unload(name, false, false, false);
+        }
+        shards.clear();
+        clients.clear();
+
+        List<Directory> dirs = new ArrayList<>();
+        RefCounted<IndexWriter> writer = target.getSolrCoreState().getIndexWriter(target);
+        try {
+            for (Path p : indexes)
+                dirs.add(FSDirectory.open(p));
+            writer.get().addIndexes(dirs.toArray(new Directory[0]));
+        } finally {
+            writer.decref();
+            for (Directory d : dirs)
+                d.close();
+        }
+        for (Path p : instances)
+            FileUtils.deleteDirectory(p.toFile());
+        LOG.info(String.format("Merged %d shards into %s in %d ms",
+                indexes.size(), target.getName(), System.currentTimeMillis() - start));
+    }
+
+    /**
+     * releases the shards that are kept
+     */
+    @Override
+    public void close() {
+        for (SolrCore core : shards)
+            core.close();
+        shards.clear();
+        clients.clear();
+    }
+}
@@ -0,0 +1,81 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.core.CoreContainer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Bulk-load profile for a solr core that is filled in one go: no transaction log, no automatic commits, a large RAM
+ * buffer so fewer segments are flushed, and a merge policy that lets segments pile up instead of merging them all
+ * along. The index is committed once at the end, and optionally merged down to a few segments.
+ * <p>
+ * The settings are passed as system properties read by the solrconfig.xml of the core (see the one in
+ * /resources/template), so {@link #enable(int)} must be called before the CoreContainer is loaded, and
+ * {@link #restore(CoreContainer, String...)} reloads the cores with their normal settings. Cores whose solrconfig.xml
+ * does not use these properties are not affected.
+ */
+public class SolrBulkLoad {
+
+    private static final Logger LOG = Logger.getLogger(SolrBulkLoad.class.getName());
+
+    public static final int DEFAULT_RAM_BUFFER_MB = 1024;
+
+    //the properties set, with the values they had before
+    private static final Map<String, String> previous = new HashMap<>();
+
+    /**
+     * @param ramBufferSizeMB RAM used by the index writer to buffer documents before flushing a segment
+     */
+    public static synchronized void enable(int ramBufferSizeMB) {
+        Map<String, String> profile = new LinkedHashMap<>();
+        profile.put("wdc.ulog.enable", "false");
+        profile.put("solr.autoCommit.maxTime", "-1");
+        profile.put("wdc.ramBufferSizeMB", String.valueOf(ramBufferSizeMB));
+        profile.put("wdc.merge.maxMergeAtOnce", "30");
+        profile.put("wdc.merge.segmentsPerTier", "30");
+        profile.put("wdc.merge.floorSegmentMB", "64");
+        for (Map.Entry<String, String> e : profile.entrySet()) {
+            if (!previous.containsKey(e.getKey()))
+                previous.put(e.getKey(), System.getProperty(e.getKey()));
+            System.setProperty(e.getKey(), e.getValue());
+        }
+        LOG.info("Bulk-load mode: " + profile);
+    }
+
+    /**
+     * commits what was added, then merges the index down to maxSegments segments if it is more than 0
+     */
+    public static void finalCommit(SolrClient client, int maxSegments) throws IOException, SolrServerException {
+        if (maxSegments > 0) {
+            LOG.info(String.format("Optimising index to %d segment(s)...", maxSegments));
+            client.optimize(true, true, maxSegments);
+        } else {
+            LOG.info("Committing index...");
+            client.commit();
+        }
+    }
+
+    /**
+     * clears the bulk-load properties and reloads the cores, so they are back to their normal settings
+     */
+    public static synchronized void restore(CoreContainer container, String... cores) {
+        if (previous.isEmpty())
+            return;
+        for (Map.Entry<String, String> e : previous.entrySet()) {
+            if (e.getValue() == null)
+                System.clearProperty(e.getKey());
+            else
+                System.setProperty(e.getKey(), e.getValue());
+        }
+        previous.clear();
+        for (String core : cores)
+            container.reload(core);
+        LOG.info("Bulk-load mode off, reloaded " + String.join(",", cores));
+    }
+}
@@ -9,6 +9,7 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
@@ -40,12 +41,18 @@ public class WDCProdMatchDatasetIndexer {
         //code for indexing products
         CoreContainer prodNCContainer = new CoreContainer(args[0]);
         prodNCContainer.load();
-        SolrClient index = new EmbeddedSolrServer(prodNCContainer.getCore("prodmatch"));
+        SolrCore core = prodNCContainer.getCore("prodmatch");
+        SolrClient index = new EmbeddedSolrServer(core);
         WDCProdMatchDatasetIndexer indexer = new WDCProdMatchDatasetIndexer();
         String clusterMetadataFile = args[1];
         indexer.readClusterMetadataLines(clusterMetadataFile);
         System.out.println("Started indexing products...");
-        indexer.indexProducts(args[2], index);
+        //--direct after the other arguments skips the solr update chain (see LuceneDirectWriter)
+        BatchingSolrWriter writer = WDCTableIndexerApp.parseOptions(args, 3).containsKey("direct")
+                ? new LuceneDirectWriter(index, core, Runtime.getRuntime().availableProcessors(), 50000)
+                : new BatchingSolrWriter(index);
+        indexer.indexProducts(args[2], writer);
+        writer.close();
         index.close();
         System.exit(0);
     }
@@ -132,7 +139,7 @@ public class WDCProdMatchDatasetIndexer {
     /**
      * Process the product metadata file (offers_corpus_english_v2.json) and index each product
      */
-    public void indexProducts(String jsonFile, SolrClient solrIndex) throws IOException {
+    public void indexProducts(String jsonFile, BatchingSolrWriter solrIndex) throws IOException {
         int batchSize = 100000;
         BufferedReader in = new BufferedReader(
                 new InputStreamReader(
@@ -176,7 +183,7 @@ public class WDCProdMatchDatasetIndexer {
         System.out.println("Total Records Found : " + numberOfRecords);
     }
 
-    private void indexProduct(Product p, SolrClient solrIndex) throws IOException, SolrServerException {
+    private void indexProduct(Product p, BatchingSolrWriter solrIndex) throws IOException {
         SolrInputDocument doc = new SolrInputDocument();
 
         long[] cluster_size_info = clusterSize.get(p.cluster_id);
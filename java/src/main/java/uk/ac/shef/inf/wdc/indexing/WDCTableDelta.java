@@ -0,0 +1,147 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import java.io.IOException;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares the gz entries of a new release of the WDC tables with what the manifest of the index records, so that
+ * only what changed is indexed. An entry of the release is matched with the recorded entry of the same key, or else
+ * with one of an earlier release of the same zip file, class and host (see WDCTableIndexManifest.sourceKey) that is
+ * not in the release itself, the most recent one not matched yet if there are several, and is:
+ * <p>
+ * - unchanged, if their fingerprints are the same: it is skipped, and keeps the documents already indexed
+ * - changed, otherwise: the entry is indexed again, its documents replacing those of the same id of the recorded
+ * entry, and once it is finished the documents of the recorded entry it did not replace (which do not have the new
+ * fingerprint) are deleted (see WDCTableIndexManifest.replace). With content ids, a record still in the entry is
+ * then only written over, and only the records no longer in it are deleted
+ * - new, if nothing matches: it is indexed
+ * <p>
+ * Recorded entries matched by none of the release are gone from the source, their documents are deleted. Entries
+ * recorded without a fingerprint (by an earlier version) count as changed, apart from those dropped for their host.
+ */
+public class WDCTableDelta {
+
+    private static final Logger LOG = Logger.getLogger(WDCTableDelta.class.getName());
+
+    private static final DateTimeFormatter RELEASE = DateTimeFormatter.ofPattern("MMMMuuuu", Locale.ENGLISH);
+
+    //keys of the entries of earlier releases, the most recent release first, then by key
+    private static final Comparator<String> MOST_RECENT_FIRST =
+            Comparator.comparing(WDCTableDelta::release, Comparator.nullsLast(Comparator.reverseOrder()))
+                    .thenComparing(Comparator.naturalOrder());
+
+    private WDCTableIndexManifest manifest;
+
+    public WDCTableDelta(WDCTableIndexManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * updates the manifest so that the run only indexes the new and changed entries of the zip files
+     *
+     * @return queries matching the documents that must be deleted before the run, those of the removed entries (see
+     * WDCTableIndexManifest.Record.getDeleteQuery). Those of the changed entries are deleted after the run, see
+     * WDCTableIndexManifest.getReplacedEntries
+     */
+    public List<String> plan(List<String> zipFiles) throws IOException {
+        Map<String, WDCTableIndexManifest.Record> records = manifest.getRecords();
+        Map<String, List<String>> recordsBySource = new HashMap<>();
+        for (String key : records.keySet())
+            recordsBySource.computeIfAbsent(WDCTableIndexManifest.sourceKey(key), k -> new ArrayList<>()).add(key);
+        for (List<String> keys : recordsBySource.values())
+            keys.sort(MOST_RECENT_FIRST);
+
+        //the keys of the release first, so a recorded entry still in the release is not matched with another one
+        Map<String, ZipEntry> release = new LinkedHashMap<>();
+        for (String zipFile : zipFiles) {
+            try (ZipFile zip = new ZipFile(zipFile)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    release.put(WDCTableIndexManifest.key(zipFile, entry.getName()), entry);
+                }
+            }
+        }
+
+        List<String> toDelete = new ArrayList<>();
+        Set<String> matched = new HashSet<>();
+        int unchanged = 0, changed = 0, added = 0;
+        for (Map.Entry<String, ZipEntry> e : release.entrySet()) {
+            String key = e.getKey();
+            ZipEntry entry = e.getValue();
+            String previous = records.containsKey(key) ? key : null;
+            if (previous == null) {
+                for (String k : recordsBySource.getOrDefault(WDCTableIndexManifest.sourceKey(key),
+                        Collections.emptyList())) {
+                    if (!matched.contains(k) && !release.containsKey(k)) {
+                        previous = k;
+                        break;
+                    }
+                }
+            }
+            if (previous == null) {
+                added++;
+                continue;
+            }
+            matched.add(previous);
+            WDCTableIndexManifest.Record r = records.get(previous);
+            if (isUnchanged(r, entry)) {
+                unchanged++;
+                if (!previous.equals(key))
+                    manifest.carryOver(previous, key);
+            } else {
+                //indexed again over the documents of the previous entry, its other documents deleted after
+                changed++;
+                manifest.replace(previous, key);
+            }
+        }
+
+        int removed = 0;
+        for (Map.Entry<String, WDCTableIndexManifest.Record> e : records.entrySet()) {
+            if (matched.contains(e.getKey()))
+                continue;
+            removed++;
+            if (e.getValue().getStatus() != WDCTableIndexManifest.Status.INVALID_HOST)
+                toDelete.add(e.getValue().getDeleteQuery(e.getKey()));
+            manifest.forget(e.getKey());
+        }
+        LOG.info(String.format("Delta: %d entries unchanged, %d changed, %d new, %d removed",
+                unchanged, changed, added, removed));
+        return toDelete;
+    }
+
+    /**
+     * @return the release of the entry of the key, e.g., September2020 for
+     * Product_top100.zip/Product_shop.co.uk_September2020.json.gz, or null if its name has none
+     */
+    static YearMonth release(String key) {
+        String name = key.substring(key.indexOf('/') + 1);
+        String source = WDCTableIndexManifest.sourceName(name);
+        if (source.equals(name))
+            return null;
+        String release = name.substring(source.length() + 1);
+        int dot = release.indexOf('.');
+        if (dot >= 0)
+            release = release.substring(0, dot);
+        try {
+            return YearMonth.parse(release, RELEASE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static boolean isUnchanged(WDCTableIndexManifest.Record r, ZipEntry entry) {
+        if (!r.getStatus().isFinished())
+            return false;
+        //the host is read from the name of the entry, which has not changed
+        if (r.getStatus() == WDCTableIndexManifest.Status.INVALID_HOST)
+            return true;
+        return WDCTableIndexManifest.fingerprint(entry).equals(r.getFingerprint());
+    }
+}
@@ -0,0 +1,142 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the solr documents of the table indexer with as little garbage per row as possible: the dynamic field names
+ * (field_t, field_innerField_t) are made once per schema.org class and reused, documents are created with room for
+ * the number of fields the rows of their class usually have, and ids are appended to a prefix kept for the whole
+ * entry or hashed from the content.
+ * <p>
+ * The set of text values is a new HashSet for every row, as in the parser before: the language detector takes the
+ * first 1000 characters of the values in the order of the set, and a cleared set that grew for an earlier row
+ * iterates in another order, which could change the language found.
+ * <p>
+ * Not thread safe: every WDCTableRowParser has its own.
+ */
+public class WDCTableDocBuilder {
+
+    //beyond this, the names of a class are made for every row (nested json objects can have any key)
+    private static final int MAX_NAMES_PER_CLASS = 10000;
+    private static final int MAX_EXPECTED_FIELDS = 256;
+    private static final HashFunction CONTENT_HASH = Hashing.murmur3_128();
+
+    private final Map<String, ClassFields> classes = new HashMap<>();
+    private Set<String> textContent = new HashSet<>();
+    private final StringBuilder id = new StringBuilder(128);
+    private ClassFields current;
+
+    /**
+     * @return a new, empty document for a row of the given class; the text values start empty
+     */
+    public SolrInputDocument start(String schemaorgClass) {
+        if (current == null || !current.schemaorgClass.equals(schemaorgClass))
+            current = classes.computeIfAbsent(schemaorgClass, ClassFields::new);
+        textContent = new HashSet<>();
+        //a LinkedHashMap holds n entries without resizing if its capacity is over n / 0.75
+        return new SolrInputDocument(new LinkedHashMap<String, SolrInputField>(current.expectedFields * 4 / 3 + 1));
+    }
+
+    /**
+     * to be called once the row is in the document, so the next documents of the class get room for as many fields
+     */
+    public void finish(SolrInputDocument doc) {
+        if (doc.size() > current.expectedFields)
+            current.expectedFields = Math.min(doc.size(), MAX_EXPECTED_FIELDS);
+    }
+
+    /**
+     * @return field + "_t"
+     */
+    public String textField(String field) {
+        String name = current.textFields.get(field);
+        if (name == null) {
+            name = field + "_t";
+            if (current.names < MAX_NAMES_PER_CLASS) {
+                current.textFields.put(field, name);
+                current.names++;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return field + "_" + innerField + "_t"
+     */
+    public String nestedField(String field, String innerField) {
+        Map<String, String> inner = current.nestedFields.get(field);
+        if (inner == null) {
+            inner = new HashMap<>();
+            if (current.names < MAX_NAMES_PER_CLASS)
+                current.nestedFields.put(field, inner);
+        }
+        String name = inner.get(innerField);
+        if (name == null) {
+            name = field + "_" + innerField + "_t";
+            if (current.names < MAX_NAMES_PER_CLASS) {
+                inner.put(innerField, name);
+                current.names++;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return the text values of the current row
+     */
+    public Set<String> textContent() {
+        return textContent;
+    }
+
+    /**
+     * @return prefix followed by number, built in a reused buffer
+     */
+    public String id(String prefix, long number) {
+        id.setLength(0);
+        return id.append(prefix).append(number).toString();
+    }
+
+    /**
+     * @return a hash of the fields of the document, with the entry it comes from taken without its release (see
+     * WDCTableIndexManifest.sourceName), so the same record (same page_url and values) of the same entry has the same
+     * id whichever release or thread it is indexed from. The same record in two entries gets two ids, so the documents
+     * of an entry can be deleted (by file_source_t) without deleting those of another
+     */
+    public String contentId(SolrInputDocument doc) {
+        Hasher h = CONTENT_HASH.newHasher();
+        for (SolrInputField f : doc) {
+            String name = f.getName();
+            h.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+            for (Object v : f) {
+                String value = String.valueOf(v);
+                if (name.equals("file_source_t"))
+                    value = WDCTableIndexManifest.sourceName(value);
+                h.putString(value, StandardCharsets.UTF_8).putByte((byte) 1);
+            }
+        }
+        return h.hash().toString();
+    }
+
+    private static class ClassFields {
+        private final String schemaorgClass;
+        private final Map<String, String> textFields = new HashMap<>();
+        private final Map<String, Map<String, String>> nestedFields = new HashMap<>();
+        private int names;
+        private int expectedFields = 16;
+
+        private ClassFields(String schemaorgClass) {
+            this.schemaorgClass = schemaorgClass;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Lists every gz entry of every zip file up front, sorted by compressed size (largest first), so that
+ * WDCTableIndexerWorker can hand them out as fork-join tasks of one entry each. Big schema.org classes (e.g.,
+ * Product) are then spread over all threads by work stealing, instead of one thread getting a whole zip file.
+ * <p>
+ * The zip files stay open while the entries are indexed (ZipFile can be read by several threads at once), and
+ * each pool thread keeps its own WDCTableRowParser.
+ */
+public class WDCTableEntryScheduler implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(WDCTableEntryScheduler.class.getName());
+
+    private List<EntryRef> entries = new ArrayList<>();
+    private Map<String, ZipFile> zipFiles = new ConcurrentHashMap<>();
+    private ThreadLocal<WDCTableRowParser> rowParsers = ThreadLocal.withInitial(() -> {
+        try {
+            return new WDCTableRowParser();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    });
+
+    public WDCTableEntryScheduler(List<String> inputZipFiles) {
+        long totalSize = 0;
+        for (String inputZipFile : inputZipFiles) {
+            try {
+                ZipFile zipFile = new ZipFile(inputZipFile);
+                zipFiles.put(inputZipFile, zipFile);
+                Enumeration<? extends ZipEntry> it = zipFile.entries();
+                while (it.hasMoreElements()) {
+                    ZipEntry entry = it.nextElement();
+                    if (entry.isDirectory())
+                        continue;
+                    entries.add(new EntryRef(inputZipFile, entry.getName(), entry.getCompressedSize()));
+                    totalSize += Math.max(0, entry.getCompressedSize());
+                }
+            } catch (IOException e) {
+                LOG.info(String.format("\tunable to list zip file: %s\n%s",
+                        inputZipFile, ExceptionUtils.getFullStackTrace(e)));
+            }
+        }
+        entries.sort((e1, e2) -> Long.compare(e2.compressedSize, e1.compressedSize));
+        LOG.info(String.format("Scheduled %d entries from %d zip files, %d compressed bytes, largest entry=%s",
+                entries.size(), inputZipFiles.size(), totalSize,
+                entries.isEmpty() ? "" : entries.get(0).entryName + " (" + entries.get(0).compressedSize + ")"));
+    }
+
+    public List<EntryRef> getEntries() {
+        return entries;
+    }
+
+    /**
+     * spreads the entries over n shards of about the same compressed size (each entry, largest first, goes to the
+     * smallest shard so far), then reorders them so the entries of every shard are contiguous, still largest first
+     *
+     * @return n+1 positions: shard i has the entries [bounds[i], bounds[i+1])
+     */
+    public int[] partition(int n) {
+        List<List<EntryRef>> shards = new ArrayList<>();
+        long[] sizes = new long[n];
+        for (int i = 0; i < n; i++)
+            shards.add(new ArrayList<>());
+        for (EntryRef e : entries) {
+            int smallest = 0;
+            for (int i = 1; i < n; i++) {
+                if (sizes[i] < sizes[smallest])
+                    smallest = i;
+            }
+            shards.get(smallest).add(e);
+            sizes[smallest] += Math.max(0, e.compressedSize);
+        }
+        int[] bounds = new int[n + 1];
+        entries.clear();
+        for (int i = 0; i < n; i++) {
+            entries.addAll(shards.get(i));
+            bounds[i + 1] = entries.size();
+        }
+        LOG.info(String.format("Partitioned the entries into %d shards of %s compressed bytes",
+                n, Arrays.toString(sizes)));
+        return bounds;
+    }
+
+    public ZipFile getZipFile(EntryRef ref) {
+        return zipFiles.get(ref.zipFile);
+    }
+
+    public ZipEntry getZipEntry(EntryRef ref) throws ZipException {
+        ZipEntry entry = getZipFile(ref).getEntry(ref.entryName);
+        if (entry == null)
+            throw new ZipException("entry " + ref.entryName + " no longer in " + ref.zipFile);
+        return entry;
+    }
+
+    /**
+     * @return the row parser of the calling thread
+     */
+    public WDCTableRowParser getRowParser() {
+        return rowParsers.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ZipFile z : zipFiles.values())
+            z.close();
+        zipFiles.clear();
+    }
+
+    /**
+     * a gz entry of a zip file
+     */
+    public static class EntryRef {
+        private final String zipFile;
+        private final String entryName;
+        private final long compressedSize;
+
+        public EntryRef(String zipFile, String entryName, long compressedSize) {
+            this.zipFile = zipFile;
+            this.entryName = entryName;
+            this.compressedSize = compressedSize;
+        }
+
+        public String getZipFile() {
+            return zipFile;
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+    }
+}
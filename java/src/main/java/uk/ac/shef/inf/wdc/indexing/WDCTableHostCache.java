@@ -0,0 +1,103 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.net.InternetDomainName;
+import uk.ac.shef.inf.wdc.DomainFilter;
+
+/**
+ * What the table indexer needs to know about the host of a page_url: its top private domain, its public suffix (the
+ * page_tld field) and whether it passes the host filter. Working these out takes a public suffix lookup, and the rows
+ * of a WDC table come from a few thousand hosts per file, so the results are kept in a bounded cache shared by all
+ * the workers.
+ */
+public class WDCTableHostCache {
+
+    private static final int MAX_HOSTS = 100000;
+
+    private static final WDCTableHostCache shared = new WDCTableHostCache(MAX_HOSTS);
+
+    private final LoadingCache<String, Host> hosts;
+
+    public WDCTableHostCache(int maxHosts) {
+        hosts = CacheBuilder.newBuilder()
+                .maximumSize(maxHosts)
+                .recordStats()
+                .build(new CacheLoader<String, Host>() {
+                    @Override
+                    public Host load(String host) {
+                        return parse(host);
+                    }
+                });
+    }
+
+    /**
+     * @return the cache used by all the workers of the table indexer
+     */
+    public static WDCTableHostCache shared() {
+        return shared;
+    }
+
+    /**
+     * @param host the host of a page_url, as given by URI.getHost()
+     */
+    public Host get(String host) {
+        return hosts.getUnchecked(host);
+    }
+
+    private static Host parse(String host) {
+        try {
+            InternetDomainName topPrivateDomain = InternetDomainName.from(host).topPrivateDomain();
+            String tld = topPrivateDomain.hasPublicSuffix() ? topPrivateDomain.publicSuffix().toString() : "";
+            return new Host(topPrivateDomain.toString(), tld, !DomainFilter.NON_ENGLISH.matches(host));
+        } catch (Exception e) {
+            //not a domain name, e.g., an ip address or a host under a public suffix
+            return Host.UNPARSED;
+        }
+    }
+
+    public String stats() {
+        CacheStats s = hosts.stats();
+        return String.format("Host cache: %d hosts, %d hits, %d misses (hit rate %.1f%%), %d evicted",
+                hosts.size(), s.hitCount(), s.missCount(), 100.0 * s.hitRate(), s.evictionCount());
+    }
+
+    public static class Host {
+        private static final Host UNPARSED = new Host(null, null, true);
+
+        private final String domain;
+        private final String tld;
+        private final boolean valid;
+
+        private Host(String domain, String tld, boolean valid) {
+            this.domain = domain;
+            this.tld = tld;
+            this.valid = valid;
+        }
+
+        /**
+         * @return false if the host is not a domain name under a public suffix, in which case domain and tld are
+         * null
+         */
+        public boolean isParsed() {
+            return domain != null;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public String getTld() {
+            return tld;
+        }
+
+        /**
+         * @return false if the host is filtered out (see {@link WDCTableRowParser#isInvalidHost(String)})
+         */
+        public boolean isValid() {
+            return valid;
+        }
+    }
+}
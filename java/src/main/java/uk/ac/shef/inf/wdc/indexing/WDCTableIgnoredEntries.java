@@ -0,0 +1,67 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The gz entries not indexed by a run of the table indexer, per schema.org class: the number of entries from an
+ * invalid host, and the names of the entries not added for another reason (too few English records, or none).
+ * <p>
+ * Indexing threads do not update it directly: each counts in its own {@link Tally}, with plain maps, and merges it
+ * here when it is done with a piece of work (a zip file, an entry, ...). Merging is thread safe and lock free
+ * (LongAdder counters and concurrent sets), so threads merging at the same time do not lose counts.
+ */
+public class WDCTableIgnoredEntries {
+
+    private final Map<String, LongAdder> invalidHost = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> otherReason = new ConcurrentHashMap<>();
+
+    /**
+     * adds the counts of the tally, which is then cleared so it can be reused
+     */
+    public void merge(Tally tally) {
+        for (Map.Entry<String, long[]> e : tally.invalidHost.entrySet())
+            invalidHost.computeIfAbsent(e.getKey(), k -> new LongAdder()).add(e.getValue()[0]);
+        for (Map.Entry<String, Set<String>> e : tally.otherReason.entrySet())
+            otherReason.computeIfAbsent(e.getKey(), k -> ConcurrentHashMap.newKeySet()).addAll(e.getValue());
+        tally.invalidHost.clear();
+        tally.otherReason.clear();
+    }
+
+    /**
+     * @return number of entries from an invalid host, per schema.org class
+     */
+    public SortedMap<String, Long> getInvalidHost() {
+        SortedMap<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : invalidHost.entrySet())
+            counts.put(e.getKey(), e.getValue().sum());
+        return counts;
+    }
+
+    /**
+     * @return names of the entries not added for another reason, per schema.org class
+     */
+    public SortedMap<String, Set<String>> getOtherReason() {
+        SortedMap<String, Set<String>> entries = new TreeMap<>();
+        for (Map.Entry<String, Set<String>> e : otherReason.entrySet())
+            entries.put(e.getKey(), new TreeSet<>(e.getValue()));
+        return entries;
+    }
+
+    /**
+     * counts of a single thread, not thread safe
+     */
+    public static class Tally {
+        private final Map<String, long[]> invalidHost = new HashMap<>();
+        private final Map<String, Set<String>> otherReason = new HashMap<>();
+
+        public void invalidHost(String schemaorgClass) {
+            invalidHost.computeIfAbsent(schemaorgClass, k -> new long[1])[0]++;
+        }
+
+        public void otherReason(String schemaorgClass, String entry) {
+            otherReason.computeIfAbsent(schemaorgClass, k -> new HashSet<>()).add(entry);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.SolrCore;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+
+/**
+ * Persistent record (a mapdb file next to the solr home) of what happened to each gz entry of the WDC table zip
+ * files: its status, how many records it had, how many were English and how many were added. With it, a run that
+ * died can be resumed, skipping the entries that were already finished.
+ * <p>
+ * An entry whose documents were added is only marked DONE once a hard commit is known to include them: commits are
+ * serialised by solr, so that is the case after the second commit completing after the entry was added. Entries
+ * left STARTED or ADDED by a crash have their documents deleted and are indexed again on resume. Changes to the
+ * records are made under the lock of the manifest, so a commit callback never sees an entry half recorded.
+ * <p>
+ * Every entry started also records the fingerprint of its content (CRC and size in the zip file) and the name its
+ * documents are indexed under (their file_source_t), so WDCTableDelta can tell what changed in a new release. The
+ * documents of an entry carry its fingerprint ({@link #FINGERPRINT_FIELD}): when an entry replaces one of an earlier
+ * release, its documents are added over those of the same id, and only the documents of the earlier entry left with
+ * another fingerprint are deleted once it is finished (see {@link #getReplacedEntries()}).
+ */
+public class WDCTableIndexManifest implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(WDCTableIndexManifest.class.getName());
+
+    //field of the documents holding the fingerprint of the entry they come from
+    public static final String FINGERPRINT_FIELD = "entry_fingerprint_s";
+
+    public enum Status {
+        STARTED, ADDED, DONE, NOT_ADDED, ROLLED_BACK, INVALID_HOST;
+
+        public boolean isFinished() {
+            return this != STARTED && this != ADDED;
+        }
+    }
+
+    private DB db;
+    private Map<String, String> entries;
+    //entries replacing entries of an earlier release, and the names (tab separated) of the entries they replace
+    private Map<String, String> replaced;
+    //entries waiting for a commit to include them, and the number of commits completed when they were added
+    private Map<String, Long> uncommitted = new ConcurrentHashMap<>();
+    private AtomicLong commits = new AtomicLong();
+
+    /**
+     * @param resume if false, anything recorded by a previous run is forgotten
+     */
+    public WDCTableIndexManifest(String manifestFile, boolean resume) {
+        db = DBMaker.fileDB(manifestFile)
+                .transactionEnable()
+                .closeOnJvmShutdown()
+                .make();
+        entries = db.hashMap("entries", Serializer.STRING, Serializer.STRING).createOrOpen();
+        replaced = db.hashMap("replaced", Serializer.STRING, Serializer.STRING).createOrOpen();
+        if (!resume) {
+            entries.clear();
+            replaced.clear();
+            db.commit();
+        }
+        int finished = 0;
+        for (String v : entries.values()) {
+            if (parse(v).status.isFinished())
+                finished++;
+        }
+        LOG.info(String.format("Manifest %s has %d entries, %d finished", manifestFile, entries.size(), finished));
+    }
+
+    /**
+     * listens to the hard commits of the core the entries are indexed into
+     */
+    public void attach(SolrCore core) {
+        core.getUpdateHandler().registerCommitCallback(new AbstractSolrEventListener(core) {
+            @Override
+            public void postCommit() {
+                committed(commits.incrementAndGet());
+            }
+        });
+    }
+
+    public static String key(String zipFile, String entryName) {
+        return zipFile.substring(zipFile.lastIndexOf("/") + 1) + "/" + entryName;
+    }
+
+    /**
+     * @return the key without the release the entry comes from, e.g., Product_top100.zip/Product_shop.co.uk for
+     * Product_top100.zip/Product_shop.co.uk_September2020.json.gz, so entries of two releases can be matched
+     */
+    public static String sourceKey(String key) {
+        int slash = key.indexOf('/');
+        return key.substring(0, slash + 1) + sourceName(key.substring(slash + 1));
+    }
+
+    /**
+     * @return the name of the entry without the release, e.g., Product_shop.co.uk for
+     * Product_shop.co.uk_September2020.json.gz
+     */
+    public static String sourceName(String entryName) {
+        if (entryName.split("_").length < 3)
+            return entryName;
+        return entryName.substring(0, entryName.lastIndexOf('_'));
+    }
+
+    /**
+     * @return what identifies the content of a gz entry of a zip file
+     */
+    public static String fingerprint(ZipEntry entry) {
+        return Long.toHexString(entry.getCrc()) + ":" + entry.getSize();
+    }
+
+    /**
+     * @return what happened to the entry, or null if it was never started
+     */
+    public Status getStatus(String zipFile, String entryName) {
+        String v = entries.get(key(zipFile, entryName));
+        return v == null ? null : parse(v).status;
+    }
+
+    public boolean isFinished(String zipFile, String entryName) {
+        Status s = getStatus(zipFile, entryName);
+        return s != null && s.isFinished();
+    }
+
+    /**
+     * @return queries matching the documents of the entries a previous run started but did not finish, which may be
+     * partially indexed (see Record.getDeleteQuery)
+     */
+    public List<String> getUnfinishedEntries() {
+        List<String> unfinished = new ArrayList<>();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            Record r = parse(e.getValue());
+            if (!r.status.isFinished())
+                unfinished.add(r.getDeleteQuery(e.getKey()));
+        }
+        return unfinished;
+    }
+
+    /**
+     * @return a copy of what is recorded, by key
+     */
+    public Map<String, Record> getRecords() {
+        Map<String, Record> records = new HashMap<>();
+        for (Map.Entry<String, String> e : entries.entrySet())
+            records.put(e.getKey(), parse(e.getValue()));
+        return records;
+    }
+
+    /**
+     * records that the entry of key 'to' has the same content as the one of key 'from', whose documents it keeps
+     */
+    public synchronized void carryOver(String from, String to) {
+        String v = entries.remove(from);
+        if (v != null)
+            entries.put(to, v);
+        db.commit();
+    }
+
+    /**
+     * records that the entry of key 'to' replaces the one of key 'from', whose record is forgotten: 'to' is indexed
+     * again, its documents replacing those of the same id, and the documents of 'from' it did not replace are deleted
+     * once it is finished (see {@link #getReplacedEntries()})
+     */
+    public synchronized void replace(String from, String to) {
+        String v = entries.remove(from);
+        uncommitted.remove(from);
+        if (v != null) {
+            String source = parse(v).getSource(from);
+            String sources = replaced.get(to);
+            replaced.put(to, sources == null ? source : sources + "\t" + source);
+        }
+        db.commit();
+    }
+
+    /**
+     * @return for every entry replacing entries of an earlier release and no longer STARTED (its documents are all
+     * added, or it ended without any), a query matching the documents of the entries it replaces that it did not
+     * replace itself (see Record.getReplacedQuery). Once they are deleted, call {@link #cleaned}
+     */
+    public synchronized Map<String, String> getReplacedEntries() {
+        Map<String, String> queries = new HashMap<>();
+        for (Map.Entry<String, String> e : replaced.entrySet()) {
+            String v = entries.get(e.getKey());
+            if (v == null)
+                continue;
+            Record r = parse(v);
+            if (r.status != Status.STARTED)
+                queries.put(e.getKey(), r.getReplacedQuery(e.getKey(), Arrays.asList(e.getValue().split("\t"))));
+        }
+        return queries;
+    }
+
+    /**
+     * records that the documents the entries replaced are deleted
+     */
+    public synchronized void cleaned(Collection<String> keys) {
+        for (String key : keys)
+            replaced.remove(key);
+        db.commit();
+    }
+
+    /**
+     * forgets the entry, which is indexed again if it is in the input of the run
+     */
+    public synchronized void forget(String key) {
+        entries.remove(key);
+        uncommitted.remove(key);
+        db.commit();
+    }
+
+    public synchronized void started(String zipFile, ZipEntry entry) {
+        put(key(zipFile, entry.getName()),
+                new Record(Status.STARTED, 0, 0, 0, fingerprint(entry), entry.getName()));
+    }
+
+    /**
+     * @param status ADDED if the entry's documents went to the index, otherwise why they did not
+     */
+    public synchronized void finished(String zipFile, String entryName, Status status,
+                                      long total, long english, long added) {
+        String key = key(zipFile, entryName);
+        //the commits completed before the record is written, so a commit running meanwhile is not counted
+        long completedCommits = commits.get();
+        String v = entries.get(key);
+        String fingerprint = v == null ? null : parse(v).fingerprint;
+        put(key, new Record(status, total, english, added, fingerprint, entryName));
+        //only waits for a commit once its ADDED record is written, so committed() cannot mark it DONE before
+        if (status == Status.ADDED)
+            uncommitted.put(key, completedCommits);
+    }
+
+    /**
+     * marks every entry added so far as DONE, to be called after the final commit of the run
+     */
+    public void allCommitted() {
+        committed(Long.MAX_VALUE);
+    }
+
+    private synchronized void committed(long completedCommits) {
+        Iterator<Map.Entry<String, Long>> it = uncommitted.entrySet().iterator();
+        boolean changed = false;
+        while (it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (completedCommits - e.getValue() < 2)
+                continue;
+            String v = entries.get(e.getKey());
+            if (v != null) {
+                Record r = parse(v);
+                r.status = Status.DONE;
+                entries.put(e.getKey(), r.toString());
+                changed = true;
+            }
+            it.remove();
+        }
+        if (changed)
+            db.commit();
+    }
+
+    private void put(String key, Record r) {
+        entries.put(key, r.toString());
+        db.commit();
+    }
+
+    @Override
+    public void close() {
+        if (!db.isClosed())
+            db.close();
+    }
+
+    private static Record parse(String v) {
+        String[] parts = v.split("\t");
+        //manifests of earlier versions have no fingerprint and source
+        return new Record(Status.valueOf(parts[0]),
+                Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                parts.length > 4 ? nullIfEmpty(parts[4]) : null, parts.length > 5 ? nullIfEmpty(parts[5]) : null);
+    }
+
+    private static String nullIfEmpty(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    public static class Record {
+        private Status status;
+        private final long total;
+        private final long english;
+        private final long added;
+        private final String fingerprint;
+        private final String source;
+
+        private Record(Status status, long total, long english, long added, String fingerprint, String source) {
+            this.status = status;
+            this.total = total;
+            this.english = english;
+            this.added = added;
+            this.fingerprint = fingerprint;
+            this.source = source;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the fingerprint of the entry when it was started, or null if unknown
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the name of the entry the documents are indexed under (file_source_t)
+         */
+        public String getSource(String key) {
+            return source != null ? source : key.substring(key.indexOf('/') + 1);
+        }
+
+        /**
+         * @return a query matching the documents of the entry and of no other: its name and the batch of its zip file.
+         * With row ids, the id of a document names its entry; with content ids, the entry without the release is
+         * part of the hash, so no document is shared by two entries
+         */
+        public String getDeleteQuery(String key) {
+            String zipFile = key.substring(0, key.indexOf('/'));
+            return "file_source_t:\"" + getSource(key) + "\" AND batch_source_t:\""
+                    + WDCTableRowParser.batchSource(zipFile) + "\"";
+        }
+
+        /**
+         * @param sources names (file_source_t) of the entries of the same zip file this entry replaces
+         * @return a query matching the documents of these entries and of this one that do not have the fingerprint
+         * of this entry, i.e., those not added (again) by this entry
+         */
+        public String getReplacedQuery(String key, Collection<String> sources) {
+            Set<String> names = new LinkedHashSet<>(sources);
+            names.add(getSource(key));
+            StringBuilder query = new StringBuilder("(");
+            for (String name : names) {
+                if (query.length() > 1)
+                    query.append(" OR ");
+                query.append("file_source_t:\"").append(name).append('"');
+            }
+            String zipFile = key.substring(0, key.indexOf('/'));
+            query.append(") AND batch_source_t:\"").append(WDCTableRowParser.batchSource(zipFile)).append('"');
+            if (fingerprint != null)
+                query.append(" AND -").append(FINGERPRINT_FIELD).append(":\"").append(fingerprint).append('"');
+            return query.toString();
+        }
+
+        @Override
+        public String toString() {
+            return status + "\t" + total + "\t" + english + "\t" + added + "\t"
+                    + (fingerprint == null ? "" : fingerprint) + "\t" + (source == null ? "" : source);
+        }
+    }
+}
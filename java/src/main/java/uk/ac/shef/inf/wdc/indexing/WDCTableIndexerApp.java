@@ -6,16 +6,52 @@ package uk.ac.shef.inf.wdc.indexing;
  *
  * For the schema, /resources/template
  *
+ * args[0]: folder of the zip files, args[1]: solr home. Optional arguments follow as --name or --name=value:
+ * --pipeline [--readers=N --parsers=N --writers=N --queue=N] uses WDCTableIndexingPipeline instead of the
+ * fork-join workers; --entry-tasks makes the fork-join workers split the work per gz entry, largest first
+ * (see WDCTableEntryScheduler), instead of per zip file. --inflaters=N inflates the members of BGZF (bgzip) gz
+ * entries with N threads in parallel (see GzipLineReader). Documents are added to solr by BatchingSolrWriter,
+ * --flushers=N sets its number of threads and --write-queue=N the number of documents it can queue.
+ *
+ * --bulk-load[=MB] loads the entities core with the profile of SolrBulkLoad (no transaction log or automatic
+ * commits, an MB RAM buffer, fewer merges) and restores its normal settings at the end. As nothing is committed
+ * until then, --resume after a crash indexes again every entry of the run. At the end, the index is optimised to
+ * --max-segments=N segments (1 by default), or only committed if N is 0. --direct writes the documents straight to
+ * Lucene indexes, one per flusher, added to the core at the end (see LuceneDirectWriter); it implies --bulk-load.
+ *
+ * --shards=N builds the index as N shard cores filled in parallel, each from its own part of the gz entries and
+ * with its own writer (see ShardedCoreBuild); the shards are merged into the entities core at the end, or kept as
+ * they are with --keep-shards. Entries are then only recorded as finished at the end of the run.
+ *
+ * --metrics[=S] exports the throughput of every stage, the solr add latencies, queue depths and thread utilisation
+ * (see WDCTableMetrics) every S seconds (60 by default) to [solr home]/metrics.json and [solr home]/metrics/*.csv,
+ * and over JMX.
+ *
+ * The outcome of every gz entry is recorded in [solr home]/index_manifest.db (see WDCTableIndexManifest). --resume
+ * continues a run that did not complete: finished entries are skipped, the documents of entries that were being
+ * indexed are deleted and these entries are indexed again. Without it, the manifest is started afresh.
+ *
+ * --delta updates an index with a new release of the tables: only the entries that are new or changed since the
+ * index was built are indexed, and the documents of entries no longer in the release are deleted (see
+ * WDCTableDelta). A changed entry is indexed over its documents, every document carrying the fingerprint of its
+ * entry, and at the end of the run the documents of the entry without the new fingerprint are deleted. Documents
+ * are deleted by entry (file_source_t and batch_source_t), which no two entries share. --content-ids makes document ids a hash of the content of their record and of its entry, so the
+ * same record of an entry gets the same id in every release, instead of the entry, batch and record number. As
+ * LuceneDirectWriter adds documents without replacing those of the same id, --content-ids cannot be used with
+ * --direct.
  */
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import java.io.Closeable;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.util.logging.Logger;
 import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
 
 import java.io.File;
 import java.io.IOException;
@@ -30,41 +66,121 @@ public class WDCTableIndexerApp {
 //        LanguageDetectorModel m = new LanguageDetectorModel(is);
 //        LanguageDetector languageDetector = new LanguageDetectorME(m);
 
-        Map<String, Integer> ignoredTLDs=new HashMap<>();
-        Map<String, Set<String>> ignoredNoneEnglish=new HashMap<>();
+        WDCTableIgnoredEntries ignored = new WDCTableIgnoredEntries();
+
+        Map<String, String> options = parseOptions(args, 2);
+        boolean direct = options.containsKey("direct");
+        if (direct && options.containsKey("content-ids"))
+            throw new IllegalArgumentException("--content-ids cannot be used with --direct, which would add the "
+                    + "documents of the same id more than once");
+        boolean bulkLoad = direct || options.containsKey("bulk-load");
+        if (bulkLoad)
+            SolrBulkLoad.enable(intOption(options, "bulk-load", SolrBulkLoad.DEFAULT_RAM_BUFFER_MB));
+
+        Closeable metricsReporting = options.containsKey("metrics")
+                ? WDCTableMetrics.shared().startReporting(new File(args[1]), intOption(options, "metrics", 60))
+                : null;
 
         CoreContainer solrContainer = new CoreContainer(args[1]);
         solrContainer.load();
 
-        SolrClient entitiesCoreClient = new EmbeddedSolrServer(solrContainer.getCore("entities"));
+        SolrCore entitiesCore = solrContainer.getCore("entities");
+        SolrClient entitiesCoreClient = new EmbeddedSolrServer(entitiesCore);
+        int shardCount = intOption(options, "shards", 0);
+        ShardedCoreBuild shards = shardCount > 1
+                ? new ShardedCoreBuild(solrContainer, entitiesCore, shardCount) : null;
         List<String> zipFiles = new ArrayList<>();
         for (File f: Objects.requireNonNull(new File(args[0]).listFiles()))
             zipFiles.add(f.toString());
         Collections.sort(zipFiles);
+        GzipLineReader.setInflaters(intOption(options, "inflaters", 0));
+        WDCTableRowParser.setContentIds(options.containsKey("content-ids"));
+        BatchingSolrWriter entitiesWriter = newWriter(entitiesCoreClient, entitiesCore, options);
+        boolean delta = options.containsKey("delta");
+        WDCTableIndexManifest manifest = new WDCTableIndexManifest(args[1] + "/index_manifest.db",
+                delta || options.containsKey("resume"));
+        manifest.attach(entitiesCore);
         LOG.info("Initialisation completed.");
-        WDCTableIndexerWorker worker =
-                new WDCTableIndexerWorker(0,entitiesCoreClient,zipFiles,ignoredTLDs,ignoredNoneEnglish);
 
+        int exitStatus = 0;
         try {
-
-            ForkJoinPool forkJoinPool = new ForkJoinPool();
-            int total = forkJoinPool.invoke(worker);
+            List<SolrClient> clients = new ArrayList<>();
+            clients.add(entitiesCoreClient);
+            if (shards != null)
+                clients.addAll(shards.getClients());
+            if (delta)
+                deleteEntries(clients, new WDCTableDelta(manifest).plan(zipFiles));
+            deleteEntries(clients, manifest.getUnfinishedEntries());
+            int total;
+            if (shards != null) {
+                total = indexShards(zipFiles, shards, options, manifest, ignored);
+            } else if (options.containsKey("pipeline")) {
+                int readers = intOption(options, "readers", 2);
+                int writers = intOption(options, "writers", 2);
+                int parsers = intOption(options, "parsers",
+                        Math.max(1, Runtime.getRuntime().availableProcessors() - readers - writers));
+                WDCTableIndexingPipeline pipeline = new WDCTableIndexingPipeline(entitiesWriter,
+                        ignored, readers, parsers, writers,
+                        intOption(options, "queue", 64));
+                pipeline.setManifest(manifest);
+                total = pipeline.run(zipFiles);
+            } else if (options.containsKey("entry-tasks")) {
+                try (WDCTableEntryScheduler scheduler = new WDCTableEntryScheduler(zipFiles)) {
+                    WDCTableIndexerWorker worker = new WDCTableIndexerWorker(0, entitiesWriter, scheduler,
+                            0, scheduler.getEntries().size(), ignored);
+                    worker.setManifest(manifest);
+                    ForkJoinPool forkJoinPool = new ForkJoinPool();
+                    total = forkJoinPool.invoke(worker);
+                }
+            } else {
+                WDCTableIndexerWorker worker =
+                        new WDCTableIndexerWorker(0, entitiesWriter, zipFiles, ignored);
+                worker.setManifest(manifest);
+                ForkJoinPool forkJoinPool = new ForkJoinPool();
+                total = forkJoinPool.invoke(worker);
+            }
 
             LOG.info(String.format("Completed, total entities=%s", total, new Date().toString()));
+            LOG.info(WDCTableLanguageDetector.stats());
+            LOG.info(WDCTableHostCache.shared().stats());
+            entitiesWriter.close();
+            //the documents of the entries that changed in a delta, and were not added again
+            Map<String, String> replaced = manifest.getReplacedEntries();
+            deleteEntries(clients, new ArrayList<>(replaced.values()));
+            manifest.cleaned(replaced.keySet());
 
-            LOG.info("Optimising index...");
-            entitiesCoreClient.optimize();
+            int maxSegments = intOption(options, "max-segments", 1);
+            List<String> cores = new ArrayList<>();
+            cores.add("entities");
+            if (shards != null && options.containsKey("keep-shards")) {
+                shards.commit(maxSegments);
+                cores.addAll(Arrays.asList(shards.getShardNames()));
+            } else {
+                if (shards != null)
+                    shards.mergeIntoTarget();
+                SolrBulkLoad.finalCommit(entitiesCoreClient, maxSegments);
+            }
+            manifest.allCommitted();
+            if (bulkLoad)
+                SolrBulkLoad.restore(solrContainer, cores.toArray(new String[0]));
         } catch (Exception ioe) {
             StringBuilder sb = new StringBuilder("Failed!");
             sb.append("\n").append(ExceptionUtils.getFullStackTrace(ioe));
             LOG.info(sb.toString());
+            exitStatus = 1;
         }
 
 
+        if (shards != null)
+            shards.close();
         entitiesCoreClient.close();
+        manifest.close();
+        if (metricsReporting != null)
+            metricsReporting.close();
 
+        Map<String, Set<String>> ignoredNoneEnglish = ignored.getOtherReason();
         LOG.info("Total ignored TLDs as follows");
-        for (Map.Entry<String, Integer> en: ignoredTLDs.entrySet())
+        for (Map.Entry<String, Long> en: ignored.getInvalidHost().entrySet())
             System.out.println("\t"+en.getKey()+"\t"+en.getValue());
         LOG.info("Total ignored NON English as follows");
         for (Map.Entry<String, Set<String>> en: ignoredNoneEnglish.entrySet())
@@ -78,7 +194,90 @@ public class WDCTableIndexerApp {
             }
         }
         w.close();
-        System.exit(0);
+        System.exit(exitStatus);
+    }
+
+    private static BatchingSolrWriter newWriter(SolrClient client, SolrCore core, Map<String, String> options) {
+        int flushers = intOption(options, "flushers", 2);
+        int writeQueue = intOption(options, "write-queue", 50000);
+        BatchingSolrWriter writer = options.containsKey("direct")
+                ? new LuceneDirectWriter(client, core, flushers, writeQueue)
+                : new BatchingSolrWriter(client, flushers, writeQueue);
+        writer.setMetrics(WDCTableMetrics.shared().getRegistry(), "solr." + core.getName());
+        return writer;
+    }
+
+    /**
+     * indexes the entries into the shards in parallel, each shard getting a part of the entries of about the same
+     * size, then closes the writers of the shards
+     */
+    private static int indexShards(List<String> zipFiles, ShardedCoreBuild shards, Map<String, String> options,
+                                   WDCTableIndexManifest manifest, WDCTableIgnoredEntries ignored)
+            throws IOException {
+        List<BatchingSolrWriter> writers = new ArrayList<>();
+        for (int i = 0; i < shards.getShards().size(); i++)
+            writers.add(newWriter(shards.getClients().get(i), shards.getShards().get(i), options));
+        try (WDCTableEntryScheduler scheduler = new WDCTableEntryScheduler(zipFiles)) {
+            int[] bounds = scheduler.partition(writers.size());
+            ForkJoinPool forkJoinPool = new ForkJoinPool();
+            List<WDCTableIndexerWorker> workers = new ArrayList<>();
+            for (int i = 0; i < writers.size(); i++) {
+                WDCTableIndexerWorker worker = new WDCTableIndexerWorker(bounds[i], writers.get(i), scheduler,
+                        bounds[i], bounds[i + 1], ignored);
+                worker.setManifest(manifest);
+                forkJoinPool.execute(worker);
+                workers.add(worker);
+            }
+            int total = 0;
+            for (WDCTableIndexerWorker worker : workers)
+                total += worker.join();
+            return total;
+        } finally {
+            for (BatchingSolrWriter w : writers)
+                w.close();
+        }
+    }
+
+    /**
+     * removes the documents of the entries, e.g., those left unfinished by a previous run, so they can be indexed again
+     *
+     * @param entryQueries a query per entry, matching its documents only (see WDCTableIndexManifest.Record)
+     */
+    private static void deleteEntries(List<SolrClient> clients, List<String> entryQueries)
+            throws IOException, SolrServerException {
+        if (entryQueries.isEmpty())
+            return;
+        LOG.info(String.format("Deleting the documents of %d entries", entryQueries.size()));
+        for (SolrClient client : clients) {
+            for (String query : entryQueries)
+                client.deleteByQuery(query);
+            client.commit();
+        }
+    }
+
+    /**
+     * reads the optional arguments given as --name or --name=value, starting at position 'from'
+     */
+    static Map<String, String> parseOptions(String[] args, int from) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = from; i < args.length; i++) {
+            String a = args[i];
+            if (!a.startsWith("--"))
+                continue;
+            int eq = a.indexOf('=');
+            if (eq < 0)
+                options.put(a.substring(2), "");
+            else
+                options.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+        return options;
+    }
+
+    static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String v = options.get(name);
+        if (v == null || v.isEmpty())
+            return defaultValue;
+        return Integer.valueOf(v);
     }
 
 }
\ No newline at end of file
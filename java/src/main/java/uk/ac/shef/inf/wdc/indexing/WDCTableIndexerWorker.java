@@ -2,21 +2,12 @@ package uk.ac.shef.inf.wdc.indexing;
 
 import java.util.logging.Logger;
 
-import com.google.common.net.InternetDomainName;
 import org.apache.commons.lang.exception.ExceptionUtils;
-import org.apache.commons.text.StringEscapeUtils;
-import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.common.SolrInputDocument;
-import org.apache.tika.language.detect.LanguageDetector;
-import org.apache.tika.language.detect.LanguageResult;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import java.io.*;
-import java.net.URI;
 import java.util.*;
 import java.util.concurrent.RecursiveTask;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -30,27 +21,29 @@ import java.util.zip.ZipFile;
  */
 
 public class WDCTableIndexerWorker extends RecursiveTask<Integer> {
-    private LanguageDetector langDetector;
+    private WDCTableRowParser rowParser;
 
-    private SolrClient entitiesCoreClient;
+    private BatchingSolrWriter entitiesWriter;
     //private SolrClient predicatesCoreClient;
-    private int commitBatch = 10000;
     private int workerID;
 
     private static final Logger LOG = Logger.getLogger(WDCTableIndexerWorker.class.getName());
 
     private int maxZipFilesPerThread = 2000;
+    //rows read between two updates of WDCTableMetrics
+    private static final int METRICS_EVERY = 1000;
     private List<String> zipFiles;
-    private Map<String, Integer> ignoredTLDs;
-    private Map<String, Set<String>> ignoredOtherReason;
+    private WDCTableIgnoredEntries ignored;
+    //entries ignored by this worker, merged into ignored once it is done
+    private WDCTableIgnoredEntries.Tally ignoredTally = new WDCTableIgnoredEntries.Tally();
 
-    private List<String> invalidDomains = Arrays.asList("ru", "rs", "gr", "pl", "md", "fr",
-            "ro", "dk", "ua", "at", "bg", "tw", "by", "hk", "it", "jp", "no", "lt", "hu",
-            "ch", "ir", "kz", "mx", "su", "br",
-            "cz", "ee", "sk", "si", "be", "de", "es", "cn",
-            "fi", "eu", "co", "cymru", "cy", "ge", "vn", "ar", "mk", "id", "ec", "tr",
-            "fm", "ba", "se", "kr", "il", "cl", "pe", "pk", "ps", "pt", "mt", "tv", "hr", "lu", "lv",
-            "gt", "sv", "me","ae");//nl - netherland, sometimes ok
+    //entry-granularity mode: this worker covers entries [entryFrom, entryTo) of the scheduler
+    private WDCTableEntryScheduler scheduler;
+    private int entryFrom;
+    private int entryTo;
+
+    //if set, entries already finished by a previous run are skipped and the outcome of every entry is recorded
+    private WDCTableIndexManifest manifest;
 
     /*
     Poe&#x27;s famous icon, The Raven displayed on 15 oz. coffee mug - also see the Poe mug
@@ -60,31 +53,39 @@ Pour tous les événements importants de votre vie, pensez à la carte personnal
 
      */
     public WDCTableIndexerWorker(int id,
-                                 SolrClient entitiesCoreClient, List<String> zipFiles,
-                                 Map<String, Integer> ignoredTLDs,
-                                 Map<String, Set<String>> ignoredOtherReason) throws IOException {
+                                 BatchingSolrWriter entitiesWriter, List<String> zipFiles,
+                                 WDCTableIgnoredEntries ignored) throws IOException {
         this.workerID = id;
-        this.entitiesCoreClient = entitiesCoreClient;
+        this.entitiesWriter = entitiesWriter;
         //this.predicatesCoreClient = predicatesCoreClient;
         this.zipFiles = zipFiles;
-        LanguageDetector detector = LanguageDetector.getDefaultLanguageDetector().loadModels();
-        this.langDetector = detector;
-        this.ignoredTLDs = ignoredTLDs;
-        this.ignoredOtherReason = ignoredOtherReason;
+        this.rowParser = new WDCTableRowParser();
+        this.ignored = ignored;
+    }
+
+    /**
+     * a worker indexing the entries [entryFrom, entryTo) listed by the scheduler, one fork-join task per entry
+     */
+    public WDCTableIndexerWorker(int id,
+                                 BatchingSolrWriter entitiesWriter, WDCTableEntryScheduler scheduler,
+                                 int entryFrom, int entryTo,
+                                 WDCTableIgnoredEntries ignored) {
+        this.workerID = id;
+        this.entitiesWriter = entitiesWriter;
+        this.scheduler = scheduler;
+        this.entryFrom = entryFrom;
+        this.entryTo = entryTo;
+        this.ignored = ignored;
     }
 
     protected int runSingleThread(List<String> zipFiles) throws IOException {
         //each zip file is a schemaorg class
-        boolean checkLanguage = true;
+        int total = 0;
         for (String inputZipFile : zipFiles) {
             try {
                 ZipFile zipFile = new ZipFile(inputZipFile);
-                String schemaorgClass = inputZipFile.substring(
-                        inputZipFile.lastIndexOf("/") + 1, inputZipFile.lastIndexOf("_")
-                );
-                String batchSource = inputZipFile.substring(
-                        inputZipFile.lastIndexOf("_") + 1, inputZipFile.lastIndexOf(".")
-                );
+                String schemaorgClass = WDCTableRowParser.schemaorgClass(inputZipFile);
+                String batchSource = WDCTableRowParser.batchSource(inputZipFile);
                 LOG.info("Thread " + workerID + " processing file " + inputZipFile + " with " + zipFile.size() + " entries");
                 Enumeration<? extends ZipEntry> entries = zipFile.entries();
                 int entryCount = 0;
@@ -92,153 +93,9 @@ Pour tous les événements importants de votre vie, pensez à la carte personnal
                 //going through each gz file
                 while (entries.hasMoreElements()) {
                     entryCount++;
-                    boolean added = false;
                     ZipEntry entry = entries.nextElement();
                     LOG.info("\tThread " + workerID + " item " + entryCount + "/" + zipFile.size() + ": " + entry.getName());
-                    if (!isValidHostByFilename(entry.getName())) {
-                        LOG.info(String.format("\t\t\t>>> NOT ADDED: data file is not from a valid host, file=%s",
-                                entry.getName()));
-                        int ignored = ignoredTLDs.getOrDefault(schemaorgClass, 0);
-                        ignored++;
-                        ignoredTLDs.put(schemaorgClass, ignored);
-                        continue;
-                    }
-                    InputStream fi = zipFile.getInputStream(entry);
-
-                    GZIPInputStream gzip = new GZIPInputStream(fi);
-                    BufferedReader breader = new BufferedReader(new InputStreamReader(gzip));
-                    String line;
-                    int recordID = 0;
-                    Collection<SolrInputDocument> toAdd = new ArrayList<>();
-                    boolean invalidHost = false, isEnglish = true;
-
-                    long total=0, english=0;
-                    while ((line = breader.readLine()) != null) {
-                        total+=1;
-                        Set<String> textContent = new HashSet<>();
-                        String docid = entry.getName() + "_thread" + workerID + "_" + batchSource + "_" + recordID;
-                        SolrInputDocument entityDoc = new SolrInputDocument();
-                        entityDoc.addField("id", docid);
-                        entityDoc.addField("schemaorg_class", schemaorgClass);
-                        entityDoc.addField("batch_source_t", batchSource);
-                        entityDoc.addField("file_source_t", entry.getName());
-                        JSONTokener tokener = new JSONTokener(line);
-                        JSONObject json = new JSONObject(tokener);
-                        String host = "";
-
-                        //check every field/column of this table
-                        for (String k : json.keySet()) {
-                            Object o = json.get(k);
-                            String field = k;
-                            if (k.equalsIgnoreCase("page_url")) {
-                                //get domain, get tld
-                                try {
-                                    entityDoc.addField("page_url", o.toString());
-                                    URI u = new URI(o.toString());
-                                    host = u.getHost();
-                                    InternetDomainName topPrivateDomain = InternetDomainName.from(u.getHost()).topPrivateDomain();
-                                    String tld = topPrivateDomain.hasPublicSuffix() ? topPrivateDomain.publicSuffix().toString() :
-                                            "";
-                                    if (isInvalidHost(host)) {
-                                        invalidHost = true;
-                                        break;
-                                    }
-                                    entityDoc.addField("page_domain", host);
-                                    entityDoc.addField("page_tld", tld);
-//                                    if (host.contains("thredup.com"))
-//                                        System.out.println();
-                                } catch (Exception e) {}
-                            } else if (o instanceof String) {
-                                String text = o.toString();
-                                try {
-                                    text = StringEscapeUtils.unescapeHtml4(o.toString()).replaceAll("\\s+", " ").trim();
-                                } catch (Exception e) {
-                                    text = text.replaceAll("\\s+", " ").trim();
-                                }
-                                if (text.contains("http"))
-                                    continue;
-                                entityDoc.addField(field + "_t", text);
-                                textContent.add(text);
-                            } else if (o instanceof JSONObject) {
-                                JSONObject innerJSON = (JSONObject) o;
-                                for (String innerField : innerJSON.keySet()) {
-                                    String innerValue = innerJSON.get(innerField).toString().trim();
-                                    entityDoc.addField(field + "_" + innerField + "_t", innerValue);
-                                }
-                            }
-                        }
-
-                        if (invalidHost) {
-                            invalidHost=false;
-                            continue;
-                        }
-
-                        //check language
-                        if (checkLanguage) {
-                            isEnglish = isEnglish(textContent);
-                            if (!isEnglish)
-                                continue;
-                            else
-                                english++;
-                        }
-
-                        //will not execute if language checking to be non english or record from invalid host
-                        toAdd.add(entityDoc);
-                        if (toAdd.size() >= commitBatch) {
-                            try {
-                                entitiesCoreClient.add(toAdd);
-                                LOG.info(String.format("\t\tadded batch size: %d, total=%d",
-                                        commitBatch, recordID));
-                                toAdd.clear();
-                                added = true;
-                            } catch (Exception e) {
-                                LOG.info(String.format("\t\tencountered exception when adding batch, current record id=%d, " +
-                                                "previous batch size=%d\n%s",
-                                        recordID, commitBatch, ExceptionUtils.getFullStackTrace(e)));
-                            }
-                        }
-                        recordID++;
-                    } //end while (one json)
-                    breader.close();
-
-                    if (toAdd.size() > 0) {
-                        try {
-                            added = true;
-                            entitiesCoreClient.add(toAdd);
-                            LOG.info(String.format("\t\tadded batch size: %d, total=%d",
-                                    commitBatch, recordID));
-                            toAdd.clear();
-                        } catch (Exception e) {
-                            LOG.info(String.format("\t\tencountered exception when adding batch, current record id=%d, " +
-                                            "previous batch size=%d\n%s",
-                                    recordID, commitBatch, ExceptionUtils.getFullStackTrace(e)));
-                        }
-                    }
-
-                    if (total>0) {
-                        double english_per = (double) english / total;
-                        if (english_per<0.1 && english < 100){
-                            try {
-                                added=false;
-                                LOG.info(String.format("\t\t\t>>> ROLL BACK, too few English data: %f, or %d records",
-                                        english_per, english));
-                                entitiesCoreClient.deleteByQuery("file_source_t:\""+entry.getName()+"\"");
-                                entitiesCoreClient.commit();
-                            }catch (Exception e){
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-
-                    //BufferedReader br = new BufferedReader(new InputStreamReader(fi));
-                    if (!added) {
-                        LOG.info(String.format("\t\t\t>>> NOT ADDED, possibly due to language or domain invalid: file=%s",
-                                entry.getName()));
-                        toAdd.clear();
-                        Set<String> notadded= ignoredOtherReason.getOrDefault(schemaorgClass, new HashSet<>());
-                        notadded.add(entry.getName());
-                        ignoredOtherReason.put(schemaorgClass, notadded);
-                    }
+                    total += indexEntry(zipFile, entry, schemaorgClass, batchSource);
                 }//end while for each zip file
                 zipFile.close();
             } catch (ZipException e) {
@@ -246,92 +103,192 @@ Pour tous les événements importants de votre vie, pensez à la carte personnal
                         , ExceptionUtils.getFullStackTrace(e)));
             }
         }
-        return 0;
+        return total;
     }
 
-    private boolean isInvalidHost(String host) {
-        for (String tld : invalidDomains) {
-            if (host.startsWith(tld + ".") || host.endsWith("." + tld))
-                return true;
+    /**
+     * index the records of one gz entry of a zip file
+     *
+     * @return number of records added
+     */
+    protected int indexEntry(ZipFile zipFile, ZipEntry entry,
+                             String schemaorgClass, String batchSource) throws IOException {
+        boolean added = false;
+        if (manifest != null) {
+            WDCTableIndexManifest.Status status = manifest.getStatus(zipFile.getName(), entry.getName());
+            if (status != null && status.isFinished()) {
+                LOG.info(String.format("\t\t\t>>> SKIPPED: already %s by a previous run, file=%s",
+                        status, entry.getName()));
+                if (status == WDCTableIndexManifest.Status.INVALID_HOST)
+                    ignoredTally.invalidHost(schemaorgClass);
+                else if (status != WDCTableIndexManifest.Status.DONE)
+                    ignoredTally.otherReason(schemaorgClass, entry.getName());
+                return 0;
+            }
+        }
+        if (!WDCTableRowParser.isValidHostByFilename(entry.getName())) {
+            LOG.info(String.format("\t\t\t>>> NOT ADDED: data file is not from a valid host, file=%s",
+                    entry.getName()));
+            ignoredTally.invalidHost(schemaorgClass);
+            if (manifest != null)
+                manifest.finished(zipFile.getName(), entry.getName(), WDCTableIndexManifest.Status.INVALID_HOST,
+                        0, 0, 0);
+            return 0;
+        }
+        if (manifest != null)
+            manifest.started(zipFile.getName(), entry);
+        GzipLineReader breader = new GzipLineReader(zipFile.getInputStream(entry));
+        String line;
+        int recordID = 0;
+        Collection<SolrInputDocument> toAdd = new ArrayList<>();
+        BatchingSolrWriter.Ticket ticket = entitiesWriter.ticket();
+        //as WDCTableIndexingPipeline, so a record gets the same id however the work is split between the workers
+        String idPrefix = entry.getName() + "_" + batchSource + "_";
+        String fingerprint = WDCTableIndexManifest.fingerprint(entry);
+        WDCTableRowParser rowParser = getRowParser();
+        WDCTableMetrics metrics = WDCTableMetrics.shared();
+        //rows read and time spent parsing them since metrics were last updated
+        int unreported = 0;
+        long parseNanos = 0;
+
+        long total=0, english=0;
+        try {
+            while ((line = breader.readLine()) != null) {
+                total+=1;
+                long start = System.nanoTime();
+                SolrInputDocument entityDoc = rowParser.parse(line, idPrefix, recordID,
+                        schemaorgClass, batchSource, entry.getName());
+                parseNanos += System.nanoTime() - start;
+                if (++unreported == METRICS_EVERY) {
+                    updateMetrics(metrics, rowParser, unreported, parseNanos);
+                    unreported = 0;
+                    parseNanos = 0;
+                }
+                //null if language checking to be non english or record from invalid host
+                if (entityDoc == null)
+                    continue;
+                english++;
+
+                entityDoc.setField(WDCTableIndexManifest.FINGERPRINT_FIELD, fingerprint);
+                toAdd.add(entityDoc);
+                //documents are held back until the entry has enough English records not to be rolled back
+                if (english >= WDCTableRowParser.ENGLISH_ACCEPTED) {
+                    entitiesWriter.add(toAdd, ticket);
+                    toAdd.clear();
+                    added = true;
+                }
+                recordID++;
+            } //end while (one json)
+        } finally {
+            breader.close();
+            updateMetrics(metrics, rowParser, unreported, parseNanos);
         }
-        return false;
-    }
-
-    private boolean isValidHostByFilename(String filename) {
-        String[] parts = filename.split("_");
-        if (parts.length < 3)
-            return true;
-        String host = parts[1];
-        return isValidHost(host);
-    }
 
-    private boolean isEnglish(Set<String> texts) {
-        StringBuilder sb = new StringBuilder();
-        for (String t: texts)
-            sb.append(t).append(" ");
-        String merged=sb.toString().replaceAll("[\\p{Punct}\\d]", " ").replaceAll("\\s+", " ").trim();
-        if (merged.length()<50 && merged.split("\\s+").length<3)
-            return false;
-        String alphanumeric =merged.replaceAll("[^a-zA-Z]","");
-        if (alphanumeric.length()<(merged.length()*0.5))
-            return false;
-
-        String langdetectinput=sb.toString().trim();
-        if (langdetectinput.length()>1000)
-            langdetectinput=langdetectinput.substring(0,1000);
-        langDetector.reset();
-        langDetector.addText(langdetectinput);
-        LanguageResult languageResult = langDetector.detect();
-        String lang = languageResult.getLanguage();
-        if (lang.equalsIgnoreCase("en") && languageResult.getRawScore()>0.9)
-            return true;
-        return false;
-    }
+        boolean rolledBack = WDCTableRowParser.tooFewEnglish(total, english);
+        if (rolledBack) {
+            //nothing was sent to solr yet
+            LOG.info(String.format("\t\t\t>>> ROLL BACK, too few English data: %f, or %d records",
+                    (double) english / total, english));
+            toAdd.clear();
+        } else if (toAdd.size() > 0) {
+            added = true;
+            entitiesWriter.add(toAdd, ticket);
+            toAdd.clear();
+        }
 
-    private boolean isEnglish_old2(Set<String> texts) {
-        int eng = 0, ignored = 0;
-        for (String t : texts) {
-            langDetector.reset();
-            langDetector.addText(t);
-            LanguageResult languageResult = langDetector.detect();
-            String lang = languageResult.getLanguage();
-            if (lang.equalsIgnoreCase("")) {
-                ignored += 1;
-                continue;
+        if (added)
+            metrics.entriesAdded.mark();
+        else if (rolledBack)
+            metrics.entriesRolledBack.mark();
+        else
+            metrics.entriesNotAdded.mark();
+
+        if (manifest != null) {
+            if (added) {
+                //recorded once all the documents of the entry are in the index, if one failed it stays STARTED
+                String zipName = zipFile.getName(), entryName = entry.getName();
+                long entryTotal = total, entryEnglish = english;
+                ticket.close(ok -> {
+                    if (ok)
+                        manifest.finished(zipName, entryName, WDCTableIndexManifest.Status.ADDED,
+                                entryTotal, entryEnglish, entryEnglish);
+                });
+            } else {
+                manifest.finished(zipFile.getName(), entry.getName(), rolledBack ?
+                                WDCTableIndexManifest.Status.ROLLED_BACK : WDCTableIndexManifest.Status.NOT_ADDED,
+                        total, english, 0);
             }
-            float conf = languageResult.getRawScore();
-            if (lang.equalsIgnoreCase("en"))
-                eng++;
         }
-        double eng_ratio = (double) eng / (texts.size() - ignored);
-        if (eng == 0)
-            return false;
-        return eng_ratio > 0.5;
-    }
-
-    private boolean isEnglish_Old(List<String> texts) {
 
-        Collections.shuffle(texts);
-        langDetector.reset();
-        for (int i = 0; i < 100 && i < texts.size(); i++)
-            langDetector.addText(texts.get(i));
+        //BufferedReader br = new BufferedReader(new InputStreamReader(fi));
+        if (!added) {
+            LOG.info(String.format("\t\t\t>>> NOT ADDED, possibly due to language or domain invalid: file=%s",
+                    entry.getName()));
+            toAdd.clear();
+            ignoredTally.otherReason(schemaorgClass, entry.getName());
+            return 0;
+        }
+        return recordID;
+    }
 
-        //longText.append(texts.get(i)).append(" ");
-        LanguageResult languageResult = langDetector.detect();
-        //check result
-        //return bestLanguage.getLang().equalsIgnoreCase("eng");
-        String lang = languageResult.getLanguage();
-        float conf = languageResult.getRawScore();
+    /**
+     * the worker is counted as busy while parsing, and waiting otherwise (for decompressed lines or for room in the
+     * queue of the solr writer)
+     */
+    private static void updateMetrics(WDCTableMetrics metrics, WDCTableRowParser rowParser,
+                                      int rows, long parseNanos) {
+        metrics.rowsRead.mark(rows);
+        rowParser.flushMetrics();
+        metrics.busy(parseNanos);
+    }
 
-//        if (lang.equalsIgnoreCase("en") && conf<0.9)
-//            System.out.println("low confident");
+    public void setManifest(WDCTableIndexManifest manifest) {
+        this.manifest = manifest;
+    }
 
-        return lang.equalsIgnoreCase("en");
+    private WDCTableRowParser getRowParser() {
+        return scheduler != null ? scheduler.getRowParser() : rowParser;
+    }
 
+    /**
+     * index the single entry this worker was given by the scheduler
+     */
+    protected int runSingleEntry(WDCTableEntryScheduler.EntryRef ref) throws IOException {
+        ZipFile zipFile = scheduler.getZipFile(ref);
+        ZipEntry entry = scheduler.getZipEntry(ref);
+        LOG.info("Thread " + workerID + " processing " + ref.getZipFile() + ": " + ref.getEntryName()
+                + " (" + ref.getCompressedSize() + " bytes)");
+        return indexEntry(zipFile, entry,
+                WDCTableRowParser.schemaorgClass(ref.getZipFile()), WDCTableRowParser.batchSource(ref.getZipFile()));
     }
 
     @Override
     protected Integer compute() {
+        if (scheduler != null) {
+            if (entryTo - entryFrom > 1) {
+                //entries are sorted largest first, so the left half is run here and the right one is left to steal
+                int mid = (entryFrom + entryTo) >>> 1;
+                WDCTableIndexerWorker left = new WDCTableIndexerWorker(entryFrom, entitiesWriter, scheduler,
+                        entryFrom, mid, ignored);
+                WDCTableIndexerWorker right = new WDCTableIndexerWorker(mid, entitiesWriter, scheduler,
+                        mid, entryTo, ignored);
+                left.setManifest(manifest);
+                right.setManifest(manifest);
+                invokeAll(left, right);
+                return mergeResult(Arrays.asList(left, right));
+            } else if (entryTo > entryFrom) {
+                WDCTableEntryScheduler.EntryRef ref = scheduler.getEntries().get(entryFrom);
+                try {
+                    return runSingleEntry(ref);
+                } catch (IOException e) {
+                    LOG.info(String.format("\t\tunable to read entry %s of zip file: %s, \n %s",
+                            ref.getEntryName(), ref.getZipFile(), ExceptionUtils.getFullStackTrace(e)));
+                } finally {
+                    ignored.merge(ignoredTally);
+                }
+            }
+            return 0;
+        }
         if (this.zipFiles.size() > maxZipFilesPerThread) {
             try {
                 List<WDCTableIndexerWorker> subWorkers =
@@ -353,6 +310,8 @@ Pour tous les événements importants de votre vie, pensez à la carte personnal
                 LOG.info(String.format("\t\tunable to read input zip file: %s, \n %s",
                         this.zipFiles.toString(), ExceptionUtils.getFullStackTrace(e)));
                 return 0;
+            } finally {
+                ignored.merge(ignoredTally);
             }
         }
     }
@@ -391,7 +350,8 @@ Pour tous les événements importants de votre vie, pensez à la carte personnal
      */
     protected WDCTableIndexerWorker createInstance(List<String> splitTasks, int id) throws IOException {
         WDCTableIndexerWorker indexer = new WDCTableIndexerWorker(id,
-                entitiesCoreClient, splitTasks, ignoredTLDs, ignoredOtherReason);
+                entitiesWriter, splitTasks, ignored);
+        indexer.setManifest(manifest);
         return indexer;
     }
     /*{
@@ -405,13 +365,4 @@ Pour tous les événements importants de votre vie, pensez à la carte personnal
         }
         return total;
     }
-
-    private boolean isValidHost(String host) {
-        for (String d : invalidDomains) {
-            if (host.endsWith("." + d) || host.startsWith("." + d))
-                return false;
-        }
-
-        return true;
-    }
 }
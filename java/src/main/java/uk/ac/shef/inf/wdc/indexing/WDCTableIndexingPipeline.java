@@ -0,0 +1,424 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A staged alternative to WDCTableIndexerWorker. Reader threads decompress the gz entries of the zip files (with a
+ * read-ahead thread each, see GzipLineReader) and pass chunks of lines over a bounded queue to a pool of parse/filter
+ * workers, which feed dedicated writer threads handing the documents to the shared BatchingSolrWriter. Each stage has
+ * its own parallelism, so decompression, parsing/language detection and indexing overlap instead of taking turns on
+ * one thread.
+ * <p>
+ * All documents of a gz entry go to the same writer, after all its chunks are parsed the entry is closed by a marker
+ * on that writer's queue. The writer stages an entry's batches until it is accepted, i.e., it has enough English
+ * records for the 'too few English' roll back (same as in WDCTableIndexerWorker) not to apply, or it is closed and
+ * passes the check. Rolled back documents therefore never reach solr. With a manifest, an entry is only recorded as
+ * added once all its documents are added to solr.
+ * <p>
+ * If a writer fails, the run is stopped: readers stop reading, parsers and writers drop what is still queued (so no
+ * stage waits for room in a queue nobody empties any more), and {@link #run(List)} throws the failure.
+ */
+public class WDCTableIndexingPipeline {
+
+    private static final Logger LOG = Logger.getLogger(WDCTableIndexingPipeline.class.getName());
+
+    private static final Chunk NO_MORE_CHUNKS = new Chunk(null, 0, null);
+    private static final Batch NO_MORE_BATCHES = new Batch(null, null);
+
+    private BatchingSolrWriter entitiesWriter;
+    private WDCTableIgnoredEntries ignored;
+
+    private int readers;
+    private int parsers;
+    private int writers;
+    private int chunkSize = 1000;
+
+    private BlockingQueue<Chunk> parseQueue;
+    private List<BlockingQueue<Batch>> writeQueues;
+    private AtomicInteger entrySeq = new AtomicInteger();
+    private AtomicLong added = new AtomicLong();
+    //set by the first writer that fails
+    private AtomicReference<Throwable> failure = new AtomicReference<>();
+    private WDCTableIndexManifest manifest;
+    private WDCTableMetrics metrics = WDCTableMetrics.shared();
+
+    /**
+     * @param readers   threads reading and decompressing zip files
+     * @param parsers   threads parsing and filtering json lines
+     * @param writers   threads staging the documents of entries until they are accepted
+     * @param queueSize capacity of the queue in front of the parsers (in chunks of lines) and of each writer (in batches)
+     */
+    public WDCTableIndexingPipeline(BatchingSolrWriter entitiesWriter,
+                                    WDCTableIgnoredEntries ignored,
+                                    int readers, int parsers, int writers, int queueSize) {
+        this.entitiesWriter = entitiesWriter;
+        this.ignored = ignored;
+        this.readers = readers;
+        this.parsers = parsers;
+        this.writers = writers;
+        this.parseQueue = new ArrayBlockingQueue<>(queueSize);
+        this.writeQueues = new ArrayList<>();
+        for (int i = 0; i < writers; i++)
+            writeQueues.add(new ArrayBlockingQueue<>(queueSize));
+        metrics.queue("parse", parseQueue);
+        for (int i = 0; i < writers; i++)
+            metrics.queue("write." + i, writeQueues.get(i));
+    }
+
+    public void setManifest(WDCTableIndexManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * @return number of records added
+     * @throws IOException if a writer failed, after all the stages have stopped
+     */
+    public int run(List<String> zipFiles) throws IOException, InterruptedException {
+        LOG.info(String.format("Pipeline started with %d readers, %d parsers, %d writers",
+                readers, parsers, writers));
+        ConcurrentLinkedQueue<String> toRead = new ConcurrentLinkedQueue<>(zipFiles);
+
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int i = 0; i < readers; i++)
+            readerThreads.add(new Thread(() -> read(toRead), "reader-" + i));
+        List<Thread> parserThreads = new ArrayList<>();
+        for (int i = 0; i < parsers; i++) {
+            WDCTableRowParser rowParser = new WDCTableRowParser();
+            parserThreads.add(new Thread(() -> parse(rowParser), "parser-" + i));
+        }
+        List<Thread> writerThreads = new ArrayList<>();
+        for (BlockingQueue<Batch> queue : writeQueues)
+            writerThreads.add(new Thread(() -> write(queue), "writer-" + writerThreads.size()));
+
+        for (Thread t : writerThreads)
+            t.start();
+        for (Thread t : parserThreads)
+            t.start();
+        for (Thread t : readerThreads)
+            t.start();
+
+        //shut down stage by stage, so every stage drains what is left from the one before
+        for (Thread t : readerThreads)
+            t.join();
+        for (int i = 0; i < parsers; i++)
+            parseQueue.put(NO_MORE_CHUNKS);
+        for (Thread t : parserThreads)
+            t.join();
+        for (BlockingQueue<Batch> queue : writeQueues)
+            queue.put(NO_MORE_BATCHES);
+        for (Thread t : writerThreads)
+            t.join();
+        Throwable failed = failure.get();
+        if (failed != null)
+            throw new IOException("Pipeline stopped, a writer failed", failed);
+        entitiesWriter.flush();
+
+        return (int) added.get();
+    }
+
+    private void read(ConcurrentLinkedQueue<String> toRead) {
+        //entries this reader skips, merged into ignored after every zip file
+        WDCTableIgnoredEntries.Tally tally = new WDCTableIgnoredEntries.Tally();
+        String inputZipFile;
+        while (failure.get() == null && (inputZipFile = toRead.poll()) != null) {
+            String schemaorgClass = WDCTableRowParser.schemaorgClass(inputZipFile);
+            String batchSource = WDCTableRowParser.batchSource(inputZipFile);
+            try (ZipFile zipFile = new ZipFile(inputZipFile)) {
+                LOG.info(Thread.currentThread().getName() + " processing file " + inputZipFile + " with " + zipFile.size() + " entries");
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements() && failure.get() == null) {
+                    ZipEntry entry = entries.nextElement();
+                    if (skipFinished(inputZipFile, entry.getName(), schemaorgClass, tally))
+                        continue;
+                    if (!WDCTableRowParser.isValidHostByFilename(entry.getName())) {
+                        LOG.info(String.format("\t\t\t>>> NOT ADDED: data file is not from a valid host, file=%s",
+                                entry.getName()));
+                        tally.invalidHost(schemaorgClass);
+                        if (manifest != null)
+                            manifest.finished(inputZipFile, entry.getName(),
+                                    WDCTableIndexManifest.Status.INVALID_HOST, 0, 0, 0);
+                        continue;
+                    }
+                    EntryState state = new EntryState(inputZipFile, entry.getName(), schemaorgClass, batchSource,
+                            WDCTableIndexManifest.fingerprint(entry), entrySeq.getAndIncrement() % writers,
+                            entitiesWriter.ticket());
+                    if (manifest != null)
+                        manifest.started(inputZipFile, entry);
+                    readEntry(zipFile, entry, state);
+                }
+            } catch (IOException e) {
+                LOG.info(String.format("\t" + Thread.currentThread().getName() + " unable to process zip file: "
+                        + inputZipFile + "\n%s", ExceptionUtils.getFullStackTrace(e)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                ignored.merge(tally);
+            }
+        }
+    }
+
+    /**
+     * @return true if a previous run finished the entry, which is then counted as it was then
+     */
+    private boolean skipFinished(String inputZipFile, String name, String schemaorgClass,
+                                 WDCTableIgnoredEntries.Tally tally) {
+        if (manifest == null)
+            return false;
+        WDCTableIndexManifest.Status status = manifest.getStatus(inputZipFile, name);
+        if (status == null || !status.isFinished())
+            return false;
+        LOG.info(String.format("\t\t\t>>> SKIPPED: already %s by a previous run, file=%s", status, name));
+        if (status == WDCTableIndexManifest.Status.INVALID_HOST)
+            tally.invalidHost(schemaorgClass);
+        else if (status != WDCTableIndexManifest.Status.DONE)
+            tally.otherReason(schemaorgClass, name);
+        return true;
+    }
+
+    private void readEntry(ZipFile zipFile, ZipEntry entry, EntryState state) throws InterruptedException {
+        long lineNo = 0;
+        //the reader is busy, but for the time it waits for room in the queue of the parsers
+        long start = System.nanoTime();
+        try (GzipLineReader breader = new GzipLineReader(zipFile.getInputStream(entry))) {
+            List<String> lines = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = breader.readLine()) != null && failure.get() == null) {
+                lines.add(line);
+                if (lines.size() >= chunkSize) {
+                    state.pending.incrementAndGet();
+                    metrics.rowsRead.mark(lines.size());
+                    metrics.busy(System.nanoTime() - start);
+                    parseQueue.put(new Chunk(state, lineNo, lines));
+                    start = System.nanoTime();
+                    lineNo += lines.size();
+                    lines = new ArrayList<>(chunkSize);
+                }
+            }
+            if (lines.size() > 0) {
+                state.pending.incrementAndGet();
+                metrics.rowsRead.mark(lines.size());
+                metrics.busy(System.nanoTime() - start);
+                parseQueue.put(new Chunk(state, lineNo, lines));
+            }
+        } catch (IOException e) {
+            LOG.info(String.format("\t\tunable to read entry %s after %d lines, \n %s",
+                    entry.getName(), lineNo, ExceptionUtils.getFullStackTrace(e)));
+        }
+        //releases the reader's hold on the entry
+        chunkDone(state);
+    }
+
+    private void parse(WDCTableRowParser rowParser) {
+        try {
+            Chunk chunk;
+            while ((chunk = parseQueue.take()) != NO_MORE_CHUNKS) {
+                EntryState state = chunk.entry;
+                if (failure.get() != null) {
+                    //the run failed, drop the chunk
+                    chunkDone(state);
+                    continue;
+                }
+                long start = System.nanoTime();
+                List<SolrInputDocument> docs = new ArrayList<>();
+                long lineNo = chunk.firstLine;
+                for (String line : chunk.lines) {
+                    long idNumber = lineNo++;
+                    SolrInputDocument entityDoc;
+                    try {
+                        entityDoc = rowParser.parse(line, state.idPrefix, idNumber,
+                                state.schemaorgClass, state.batchSource, state.name);
+                    } catch (RuntimeException e) {
+                        LOG.info(String.format("\t\tunable to parse line %d of %s: %s",
+                                idNumber, state.name, e.getMessage()));
+                        entityDoc = null;
+                    }
+                    state.total.incrementAndGet();
+                    if (entityDoc != null) {
+                        entityDoc.setField(WDCTableIndexManifest.FINGERPRINT_FIELD, state.fingerprint);
+                        docs.add(entityDoc);
+                    }
+                }
+                state.english.addAndGet(docs.size());
+                rowParser.flushMetrics();
+                metrics.busy(System.nanoTime() - start);
+                if (docs.size() > 0)
+                    writeQueues.get(state.writer).put(new Batch(state, docs));
+                chunkDone(state);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * whoever finishes the last piece of work on an entry closes it, after all its batches are queued
+     */
+    private void chunkDone(EntryState state) throws InterruptedException {
+        if (state.pending.decrementAndGet() == 0)
+            writeQueues.get(state.writer).put(new Batch(state, null));
+    }
+
+    private void write(BlockingQueue<Batch> queue) {
+        //entries this writer does not add, merged into ignored once it stops
+        WDCTableIgnoredEntries.Tally tally = new WDCTableIgnoredEntries.Tally();
+        try {
+            Batch batch;
+            while ((batch = queue.take()) != NO_MORE_BATCHES) {
+                //after a failure, keep taking the batches so the parsers are not blocked, but drop them
+                if (failure.get() != null)
+                    continue;
+                long start = System.nanoTime();
+                try {
+                    if (batch.docs != null)
+                        stage(batch);
+                    else
+                        closeEntry(batch.entry, tally);
+                } catch (InterruptedIOException e) {
+                    throw new InterruptedException(e.getMessage());
+                } catch (IOException | RuntimeException | Error e) {
+                    //e.g., the writer closed, or the manifest failing; the queue is drained all the same
+                    failure.compareAndSet(null, e);
+                    LOG.info(String.format("\t\t%s failed, stopping the pipeline: %s",
+                            Thread.currentThread().getName(), ExceptionUtils.getFullStackTrace(e)));
+                }
+                metrics.busy(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ignored.merge(tally);
+        }
+    }
+
+    /**
+     * hands the batch to the solr writer, or stages it while the entry is not accepted yet
+     */
+    private void stage(Batch batch) throws IOException {
+        EntryState state = batch.entry;
+        if (state.staged == null) {
+            entitiesWriter.add(batch.docs, state.ticket);
+            return;
+        }
+        state.staged.add(batch);
+        state.stagedDocs += batch.docs.size();
+        if (state.stagedDocs >= WDCTableRowParser.ENGLISH_ACCEPTED)
+            release(state);
+    }
+
+    private void release(EntryState state) throws IOException {
+        for (Batch b : state.staged)
+            entitiesWriter.add(b.docs, state.ticket);
+        state.staged = null;
+        state.stagedDocs = 0;
+    }
+
+    private void closeEntry(EntryState state, WDCTableIgnoredEntries.Tally tally) throws IOException {
+        long total = state.total.get(), english = state.english.get();
+        boolean rolledBack = WDCTableRowParser.tooFewEnglish(total, english);
+        if (rolledBack) {
+            LOG.info(String.format("\t\t\t>>> ROLL BACK, too few English data: %f, or %d records, file=%s",
+                    (double) english / total, english, state.name));
+            state.staged = null;
+        } else if (state.staged != null) {
+            release(state);
+        }
+        if (rolledBack)
+            metrics.entriesRolledBack.mark();
+        else if (english == 0)
+            metrics.entriesNotAdded.mark();
+        else
+            metrics.entriesAdded.mark();
+        if (rolledBack || english == 0) {
+            LOG.info(String.format("\t\t\t>>> NOT ADDED, possibly due to language or domain invalid: file=%s",
+                    state.name));
+            tally.otherReason(state.schemaorgClass, state.name);
+            if (manifest != null)
+                manifest.finished(state.zipFile, state.name, rolledBack ? WDCTableIndexManifest.Status.ROLLED_BACK :
+                        WDCTableIndexManifest.Status.NOT_ADDED, total, english, 0);
+            return;
+        }
+        //if a document of the entry failed, it stays STARTED in the manifest and is indexed again on resume
+        state.ticket.close(ok -> {
+            if (!ok)
+                return;
+            added.addAndGet(english);
+            if (manifest != null)
+                manifest.finished(state.zipFile, state.name, WDCTableIndexManifest.Status.ADDED,
+                        total, english, english);
+        });
+    }
+
+    /**
+     * a gz entry while its chunks travel through the pipeline
+     */
+    private static class EntryState {
+        private final String zipFile;
+        private final String name;
+        private final String schemaorgClass;
+        private final String batchSource;
+        //the ids of the documents are this followed by the line number
+        private final String idPrefix;
+        private final String fingerprint;
+        private final int writer;
+        //one hold is kept by the reader until the whole entry is read
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong english = new AtomicLong();
+        //only touched by the entry's writer. Batches are staged (not sent to solr) until the entry is accepted
+        private List<Batch> staged = new ArrayList<>();
+        private int stagedDocs;
+        private final BatchingSolrWriter.Ticket ticket;
+
+        private EntryState(String zipFile, String name, String schemaorgClass, String batchSource,
+                           String fingerprint, int writer, BatchingSolrWriter.Ticket ticket) {
+            this.zipFile = zipFile;
+            this.name = name;
+            this.schemaorgClass = schemaorgClass;
+            this.batchSource = batchSource;
+            this.idPrefix = name + "_" + batchSource + "_";
+            this.fingerprint = fingerprint;
+            this.writer = writer;
+            this.ticket = ticket;
+        }
+    }
+
+    private static class Chunk {
+        private final EntryState entry;
+        private final long firstLine;
+        private final List<String> lines;
+
+        private Chunk(EntryState entry, long firstLine, List<String> lines) {
+            this.entry = entry;
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * parsed documents of a chunk, or with null docs, the marker closing an entry
+     */
+    private static class Batch {
+        private final EntryState entry;
+        private final List<SolrInputDocument> docs;
+
+        private Batch(EntryState entry, List<SolrInputDocument> docs) {
+            this.entry = entry;
+            this.docs = docs;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides if the text of a table row is English, trying cheap tiers before the Tika language detector:
+ * <ol>
+ * <li>a single pass over the text, rejecting rows with too little text or too few ASCII letters (same rules as
+ * before), and accepting rows with enough common English stop words</li>
+ * <li>the decisions Tika made recently for rows of the same host (page_domain), kept in a bounded LRU cache. The
+ * language of a host rarely changes, so once enough rows of a host agree, their decision is reused (and re-checked
+ * every now and then)</li>
+ * <li>Tika, on the first 1000 characters, for the rows left undecided</li>
+ * </ol>
+ * Not thread safe, like the Tika detector it wraps. The hit counters of the tiers are shared by all instances, see
+ * {@link #stats()}.
+ */
+public class WDCTableLanguageDetector {
+
+    //stop words that are common in English and rare as words of the other languages in the corpus
+    private static final Set<String> stopwords = new HashSet<>(Arrays.asList(
+            "the", "and", "of", "for", "with", "this", "that", "it", "by", "from", "at", "are", "be", "your", "you",
+            "our", "we", "can", "has", "have", "not", "all", "its", "these", "which", "their", "they", "each",
+            "been", "were", "other", "into", "about", "than", "when", "only", "any", "if", "out", "there", "what",
+            "would", "should", "just", "very", "how", "who", "while", "such", "them", "those", "then"));
+    private static final int STOPWORD_MIN_TOKENS = 12;
+    private static final int STOPWORD_MIN_DISTINCT = 3;
+    private static final double STOPWORD_MIN_RATIO = 0.2;
+
+    private static final int HOST_CACHE_SIZE = 10000;
+    private static final int HOST_MIN_SAMPLES = 5;
+    private static final double HOST_MIN_AGREEMENT = 0.9;
+    //every this many cache hits of a host, Tika is asked again
+    private static final int HOST_RECHECK = 32;
+
+    private static final LongAdder rows = new LongAdder();
+    private static final LongAdder preFilterRejected = new LongAdder();
+    private static final LongAdder stopwordAccepted = new LongAdder();
+    private static final LongAdder hostCacheHits = new LongAdder();
+    private static final LongAdder tikaCalls = new LongAdder();
+
+    private LanguageDetector tika;
+    private Map<String, HostLanguage> hosts = new LinkedHashMap<String, HostLanguage>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HostLanguage> eldest) {
+            return size() > HOST_CACHE_SIZE;
+        }
+    };
+    private StringBuilder token = new StringBuilder();
+    private Set<String> stopwordsSeen = new HashSet<>();
+
+    public WDCTableLanguageDetector(LanguageDetector tika) {
+        this.tika = tika;
+    }
+
+    /**
+     * @param host  host of the row, or null if unknown (the host cache is then not used)
+     * @param texts the text values of the row
+     */
+    public boolean isEnglish(String host, Set<String> texts) {
+        rows.increment();
+        //tier 1, in one pass: punctuation and digits are separators, [a-zA-Z] are counted
+        int chars = 0, tokens = 0, letters = 0, stopwordTokens = 0;
+        stopwordsSeen.clear();
+        for (String t : texts) {
+            for (int i = 0, n = t.length(); i <= n; i++) {
+                char c = i < n ? t.charAt(i) : ' ';
+                if (isSeparator(c)) {
+                    if (token.length() > 0) {
+                        if (tokens > 0)
+                            chars++;
+                        tokens++;
+                        chars += token.length();
+                        if (token.length() <= 7 && isStopword())
+                            stopwordTokens++;
+                        token.setLength(0);
+                    }
+                    continue;
+                }
+                token.append(c);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+                    letters++;
+            }
+        }
+        if ((chars < 50 && Math.max(tokens, 1) < 3) || letters < chars * 0.5) {
+            preFilterRejected.increment();
+            return false;
+        }
+        if (tokens >= STOPWORD_MIN_TOKENS && stopwordsSeen.size() >= STOPWORD_MIN_DISTINCT
+                && stopwordTokens >= tokens * STOPWORD_MIN_RATIO) {
+            stopwordAccepted.increment();
+            return true;
+        }
+
+        //tier 2
+        HostLanguage hostLanguage = null;
+        if (host != null && !host.isEmpty()) {
+            hostLanguage = hosts.computeIfAbsent(host, h -> new HostLanguage());
+            Boolean decided = hostLanguage.decision();
+            if (decided != null && ++hostLanguage.hits % HOST_RECHECK != 0) {
+                hostCacheHits.increment();
+                return decided;
+            }
+        }
+
+        //tier 3
+        tikaCalls.increment();
+        StringBuilder sb = new StringBuilder();
+        for (String t : texts)
+            sb.append(t).append(" ");
+        String langdetectinput = sb.toString().trim();
+        if (langdetectinput.length() > 1000)
+            langdetectinput = langdetectinput.substring(0, 1000);
+        tika.reset();
+        tika.addText(langdetectinput);
+        LanguageResult languageResult = tika.detect();
+        boolean english = languageResult.getLanguage().equalsIgnoreCase("en") && languageResult.getRawScore() > 0.9;
+        if (hostLanguage != null) {
+            if (english)
+                hostLanguage.english++;
+            else
+                hostLanguage.other++;
+        }
+        return english;
+    }
+
+    private boolean isStopword() {
+        String w = token.toString().toLowerCase();
+        if (!stopwords.contains(w))
+            return false;
+        stopwordsSeen.add(w);
+        return true;
+    }
+
+    /**
+     * same as [\p{Punct}\d\s] without Pattern.UNICODE_CHARACTER_CLASS
+     */
+    private static boolean isSeparator(char c) {
+        if (c >= '0' && c <= '9')
+            return true;
+        if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r')
+            return true;
+        return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+    }
+
+    /**
+     * @return how many rows each tier decided, across all instances
+     */
+    public static String stats() {
+        long all = rows.sum();
+        return String.format("Language detection of %d rows: pre-filter rejected %s, stop words accepted %s, " +
+                        "host cache %s, Tika %s",
+                all, share(preFilterRejected.sum(), all), share(stopwordAccepted.sum(), all),
+                share(hostCacheHits.sum(), all), share(tikaCalls.sum(), all));
+    }
+
+    private static String share(long n, long all) {
+        return String.format("%d (%.1f%%)", n, all == 0 ? 0.0 : 100.0 * n / all);
+    }
+
+    /**
+     * Tika decisions for the rows of a host
+     */
+    private static class HostLanguage {
+        private int english;
+        private int other;
+        private int hits;
+
+        /**
+         * @return the language most rows of the host agree on, or null if not enough rows do
+         */
+        private Boolean decision() {
+            int samples = english + other;
+            if (samples < HOST_MIN_SAMPLES)
+                return null;
+            if (english >= samples * HOST_MIN_AGREEMENT)
+                return Boolean.TRUE;
+            if (other >= samples * HOST_MIN_AGREEMENT)
+                return Boolean.FALSE;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import com.codahale.metrics.*;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Throughput, latency and utilisation of the stages of the table indexer, in a dropwizard MetricRegistry shared by
+ * all its threads:
+ * <p>
+ * - rows.read, rows.parsed, rows.filtered.host, rows.filtered.language, rows.accepted: rows per second through each
+ * stage (the filters are those of WDCTableRowParser)
+ * - entries.added, entries.rolledBack, entries.notAdded: gz entries finished
+ * - solr.[core].*: documents added to solr, add latency and batch sizes, queue depth (see BatchingSolrWriter)
+ * - queue.*: depth of the queues between the stages of WDCTableIndexingPipeline
+ * - utilisation.[thread]: share of the last minute a thread spent working, rather than waiting for input or for
+ * room downstream
+ * <p>
+ * Counts are only updated every few rows (or chunks) by each thread, so they cost next to nothing per row. See
+ * {@link #startReporting(File, long)} for how they are exported.
+ */
+public class WDCTableMetrics {
+
+    private static final Logger LOG = Logger.getLogger(WDCTableMetrics.class.getName());
+
+    private static final WDCTableMetrics shared = new WDCTableMetrics();
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    public final Meter rowsRead = registry.meter("rows.read");
+    public final Meter rowsParsed = registry.meter("rows.parsed");
+    public final Meter rowsHostFiltered = registry.meter("rows.filtered.host");
+    public final Meter rowsLanguageFiltered = registry.meter("rows.filtered.language");
+    public final Meter rowsAccepted = registry.meter("rows.accepted");
+    public final Meter entriesAdded = registry.meter("entries.added");
+    public final Meter entriesRolledBack = registry.meter("entries.rolledBack");
+    public final Meter entriesNotAdded = registry.meter("entries.notAdded");
+
+    //work time of each thread, in nanoseconds per second
+    private final Map<String, Meter> busy = new ConcurrentHashMap<>();
+
+    /**
+     * @return the metrics of the table indexer
+     */
+    public static WDCTableMetrics shared() {
+        return shared;
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * records that the calling thread spent this time working
+     */
+    public void busy(long nanos) {
+        busy.computeIfAbsent(Thread.currentThread().getName(), thread -> {
+            Meter m = new Meter();
+            register("utilisation." + thread, () -> m.getOneMinuteRate() / 1e9);
+            return m;
+        }).mark(nanos);
+    }
+
+    /**
+     * tracks the depth of a queue between two stages
+     */
+    public void queue(String name, Collection<?> queue) {
+        register("queue." + name, queue::size);
+    }
+
+    /**
+     * registers a gauge, replacing any gauge of the same name (e.g., of a previous run in the same JVM)
+     */
+    public void register(String name, Gauge<?> gauge) {
+        registry.remove(name);
+        try {
+            registry.register(name, gauge);
+        } catch (IllegalArgumentException e) {
+            //registered by another thread meanwhile
+        }
+    }
+
+    /**
+     * Starts exporting the metrics: as MBeans of the domain 'wdc_index' over JMX, and every period (in seconds) as
+     * [folder]/metrics.json (the latest snapshot) and as one CSV file per metric in [folder]/metrics/, a line per
+     * period.
+     *
+     * @return stops the reporting, after a last snapshot
+     */
+    public Closeable startReporting(File folder, long period) {
+        File csvFolder = new File(folder, "metrics");
+        csvFolder.mkdirs();
+        JmxReporter jmx = JmxReporter.forRegistry(registry).inDomain("wdc_index").build();
+        CsvReporter csv = CsvReporter.forRegistry(registry).formatFor(Locale.US)
+                .convertRatesTo(TimeUnit.SECONDS).convertDurationsTo(TimeUnit.MILLISECONDS).build(csvFolder);
+        JsonReporter json = new JsonReporter(registry, new File(folder, "metrics.json"));
+        jmx.start();
+        csv.start(period, TimeUnit.SECONDS);
+        json.start(period, TimeUnit.SECONDS);
+        LOG.info(String.format("Reporting metrics every %d seconds to %s and over JMX", period, folder));
+        return () -> {
+            csv.report();
+            json.report();
+            csv.stop();
+            json.stop();
+            jmx.stop();
+        };
+    }
+
+    /**
+     * writes the latest snapshot of all the metrics as a json file, replaced atomically
+     */
+    private static class JsonReporter extends ScheduledReporter {
+        private final File file;
+
+        private JsonReporter(MetricRegistry registry, File file) {
+            super(registry, "json-reporter", MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+            this.file = file;
+        }
+
+        @Override
+        public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                           SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                           SortedMap<String, Timer> timers) {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (JsonWriter w = new JsonWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                    StandardCharsets.UTF_8))) {
+                w.setIndent("  ");
+                //NaN and infinite values are written as they are
+                w.setLenient(true);
+                w.beginObject();
+                w.name("timestamp").value(System.currentTimeMillis());
+                w.name("gauges").beginObject();
+                for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+                    Object v = e.getValue().getValue();
+                    if (v instanceof Number)
+                        w.name(e.getKey()).value((Number) v);
+                    else
+                        w.name(e.getKey()).value(String.valueOf(v));
+                }
+                w.endObject();
+                w.name("counters").beginObject();
+                for (Map.Entry<String, Counter> e : counters.entrySet())
+                    w.name(e.getKey()).value(e.getValue().getCount());
+                w.endObject();
+                w.name("meters").beginObject();
+                for (Map.Entry<String, Meter> e : meters.entrySet()) {
+                    w.name(e.getKey()).beginObject();
+                    writeRates(w, e.getValue());
+                    w.endObject();
+                }
+                w.endObject();
+                w.name("histograms").beginObject();
+                for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+                    w.name(e.getKey()).beginObject();
+                    w.name("count").value(e.getValue().getCount());
+                    writeSnapshot(w, e.getValue().getSnapshot(), 1);
+                    w.endObject();
+                }
+                w.endObject();
+                w.name("timers").beginObject();
+                for (Map.Entry<String, Timer> e : timers.entrySet()) {
+                    w.name(e.getKey()).beginObject();
+                    writeRates(w, e.getValue());
+                    //in milliseconds
+                    writeSnapshot(w, e.getValue().getSnapshot(), 1e6);
+                    w.endObject();
+                }
+                w.endObject();
+                w.endObject();
+            } catch (IOException | RuntimeException e) {
+                LOG.warning("unable to write " + tmp + ": " + e);
+                return;
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOG.warning("unable to replace " + file + ": " + e);
+            }
+        }
+
+        private static void writeRates(JsonWriter w, Metered m) throws IOException {
+            w.name("count").value(m.getCount());
+            w.name("meanRate").value(m.getMeanRate());
+            w.name("m1Rate").value(m.getOneMinuteRate());
+            w.name("m5Rate").value(m.getFiveMinuteRate());
+            w.name("m15Rate").value(m.getFifteenMinuteRate());
+        }
+
+        private static void writeSnapshot(JsonWriter w, Snapshot s, double scale) throws IOException {
+            w.name("min").value(s.getMin() / scale);
+            w.name("mean").value(s.getMean() / scale);
+            w.name("p50").value(s.getMedian() / scale);
+            w.name("p95").value(s.get95thPercentile() / scale);
+            w.name("p99").value(s.get99thPercentile() / scale);
+            w.name("max").value(s.getMax() / scale);
+        }
+    }
+}
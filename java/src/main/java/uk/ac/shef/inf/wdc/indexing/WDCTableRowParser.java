@@ -0,0 +1,223 @@
+package uk.ac.shef.inf.wdc.indexing;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import uk.ac.shef.inf.wdc.DomainFilter;
+import uk.ac.shef.inf.wdc.text.TextNormaliser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * converts one json line of a WDC table (http://webdatacommons.org/structureddata/schemaorgtables/) into a
+ * solr document, applying the host and language filters.
+ * <p>
+ * Not thread safe (the language detector is stateful): every thread needs its own instance.
+ */
+public class WDCTableRowParser {
+
+    //only used for nested values of a record, which are rare
+    private static final JsonParser jsonParser = new JsonParser();
+
+    private static volatile boolean contentIds = false;
+
+    private WDCTableLanguageDetector englishDetector;
+    private boolean checkLanguage = true;
+    private TextNormaliser normaliser = new TextNormaliser();
+    private WDCTableHostCache hostCache = WDCTableHostCache.shared();
+    private WDCTableDocBuilder docBuilder = new WDCTableDocBuilder();
+
+    //rows parsed, filtered and accepted since the last flushMetrics()
+    private long parsedRows, hostFilteredRows, languageFilteredRows, acceptedRows;
+
+    public WDCTableRowParser() throws IOException {
+        this.englishDetector = new WDCTableLanguageDetector(
+                LanguageDetector.getDefaultLanguageDetector().loadModels());
+    }
+
+    /**
+     * @param contentIds if true, the id of a document is a hash of its content and the entry it comes from (see
+     *                   WDCTableDocBuilder.contentId), otherwise (the default) the id prefix given to parse (the entry
+     *                   and batch) followed by the number of the record in the entry
+     */
+    public static void setContentIds(boolean contentIds) {
+        WDCTableRowParser.contentIds = contentIds;
+    }
+
+    /**
+     * @param line           one json record of the table
+     * @param idPrefix       without content ids, the id of the solr document is this prefix followed by idNumber
+     * @param idNumber       number of the record in its entry
+     * @param schemaorgClass the schema.org class of the table (from the zip file name)
+     * @param batchSource    the batch the zip file belongs to (from the zip file name)
+     * @param fileSource     the name of the gz entry the line comes from
+     * @return the document to index, or null if the record is from an invalid host or not in English
+     */
+    public SolrInputDocument parse(String line, String idPrefix, long idNumber,
+                                   String schemaorgClass, String batchSource, String fileSource) {
+        parsedRows++;
+        SolrInputDocument entityDoc = docBuilder.start(schemaorgClass);
+        Set<String> textContent = docBuilder.textContent();
+        entityDoc.addField("schemaorg_class", schemaorgClass);
+        entityDoc.addField("batch_source_t", batchSource);
+        entityDoc.addField("file_source_t", fileSource);
+        String host = "";
+
+        //the record is read field by field, straight into the document, and dropped as soon as its host is invalid
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            reader.setLenient(true);
+            reader.beginObject();
+            //check every field/column of this table
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                JsonToken token = reader.peek();
+                if (field.equalsIgnoreCase("page_url")) {
+                    String url = value(reader);
+                    //get domain, get tld
+                    try {
+                        entityDoc.addField("page_url", url);
+                        URI u = new URI(url);
+                        host = u.getHost();
+                        if (host == null)
+                            continue;
+                        WDCTableHostCache.Host h = hostCache.get(host);
+                        if (!h.isParsed())
+                            continue;
+                        if (!h.isValid()) {
+                            hostFilteredRows++;
+                            return null;
+                        }
+                        entityDoc.addField("page_domain", host);
+                        entityDoc.addField("page_tld", h.getTld());
+                    } catch (Exception e) {}
+                } else if (token == JsonToken.STRING) {
+                    String text = reader.nextString();
+                    try {
+                        text = normaliser.collapseWhitespace(TextNormaliser.unescapeHtml4(text));
+                    } catch (Exception e) {
+                        text = normaliser.collapseWhitespace(text);
+                    }
+                    if (text.contains("http"))
+                        continue;
+                    entityDoc.addField(docBuilder.textField(field), text);
+                    textContent.add(text);
+                } else if (token == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String innerField = reader.nextName();
+                        String innerValue = value(reader).trim();
+                        entityDoc.addField(docBuilder.nestedField(field, innerField), innerValue);
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new JsonSyntaxException("unable to parse the record: " + e.getMessage(), e);
+        }
+
+        //check language
+        if (checkLanguage && !englishDetector.isEnglish(host, textContent)) {
+            languageFilteredRows++;
+            return null;
+        }
+        acceptedRows++;
+        //only the records kept get an id
+        entityDoc.addField("id", contentIds ? docBuilder.contentId(entityDoc) : docBuilder.id(idPrefix, idNumber));
+        docBuilder.finish(entityDoc);
+        return entityDoc;
+    }
+
+    /**
+     * adds the rows parsed, filtered and accepted since the last call to the shared WDCTableMetrics
+     */
+    public void flushMetrics() {
+        WDCTableMetrics metrics = WDCTableMetrics.shared();
+        metrics.rowsParsed.mark(parsedRows);
+        metrics.rowsHostFiltered.mark(hostFilteredRows);
+        metrics.rowsLanguageFiltered.mark(languageFilteredRows);
+        metrics.rowsAccepted.mark(acceptedRows);
+        parsedRows = hostFilteredRows = languageFilteredRows = acceptedRows = 0;
+    }
+
+    /**
+     * an entry with at least this many English records is never rolled back, however many other records it has
+     */
+    public static final int ENGLISH_ACCEPTED = 100;
+
+    /**
+     * @return the next value as a string, the same as org.json gives when the record is parsed into a JSONObject
+     */
+    private static String value(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return JSONObject.stringToValue(reader.nextString()).toString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL.toString();
+            case BEGIN_OBJECT:
+                return new JSONObject(jsonParser.parse(reader).toString()).toString();
+            default:
+                return new JSONArray(jsonParser.parse(reader).toString()).toString();
+        }
+    }
+
+    /**
+     * an entry is rolled back if it has too few English records
+     */
+    public static boolean tooFewEnglish(long total, long english) {
+        if (total == 0)
+            return false;
+        double english_per = (double) english / total;
+        return english_per < 0.1 && english < ENGLISH_ACCEPTED;
+    }
+
+    public static String schemaorgClass(String inputZipFile) {
+        return inputZipFile.substring(
+                inputZipFile.lastIndexOf("/") + 1, inputZipFile.lastIndexOf("_")
+        );
+    }
+
+    public static String batchSource(String inputZipFile) {
+        return inputZipFile.substring(
+                inputZipFile.lastIndexOf("_") + 1, inputZipFile.lastIndexOf(".")
+        );
+    }
+
+    /**
+     * @return true if the host is from a non English speaking country, by its TLD or first label
+     */
+    public static boolean isInvalidHost(String host) {
+        return DomainFilter.NON_ENGLISH.matches(host);
+    }
+
+    public static boolean isValidHostByFilename(String filename) {
+        String[] parts = filename.split("_");
+        if (parts.length < 3)
+            return true;
+        String host = parts[1];
+        return isValidHost(host);
+    }
+
+    public static boolean isValidHost(String host) {
+        return !DomainFilter.NON_ENGLISH.matchesSuffix(host);
+    }
+
+    public boolean isEnglish(Set<String> texts) {
+        return englishDetector.isEnglish(null, texts);
+    }
+}
@@ -0,0 +1,184 @@
+package uk.ac.shef.inf.wdc.text;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * String cleaning used by the indexers and exporters, done in one pass over a reusable char buffer instead of chains
+ * of String.replaceAll. Every method documents the regex chain it replaces and gives the same output.
+ * <p>
+ * Not thread safe (the buffer is reused), use {@link #instance()} to get the normaliser of the calling thread.
+ */
+public class TextNormaliser {
+
+    /**
+     * the characters of \p{Punct}
+     */
+    public static final String PUNCT = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+
+    private static final ThreadLocal<TextNormaliser> normalisers = ThreadLocal.withInitial(TextNormaliser::new);
+
+    //what StringUtils.stripAccents leaves of each char above 127 once non ASCII chars are removed, computed on demand
+    private static final String[] asciiFolds = new String[Character.MAX_VALUE + 1];
+
+    private char[] buf = new char[256];
+    private int len;
+    private boolean pendingSpace;
+
+    public static TextNormaliser instance() {
+        return normalisers.get();
+    }
+
+    /**
+     * same as s.replaceAll("\\s+", " ").trim()
+     */
+    public String collapseWhitespace(String s) {
+        begin(s.length());
+        for (int i = 0, n = s.length(); i < n; i++)
+            append(s.charAt(i));
+        return end();
+    }
+
+    /**
+     * same as s.replaceAll("[^\\p{ASCII}]", "").replaceAll("\\s+", " ").trim()
+     */
+    public String toASCII(String s) {
+        begin(s.length());
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 128)
+                append(c);
+        }
+        return end();
+    }
+
+    /**
+     * same as toASCII(StringUtils.stripAccents(s)), i.e., accented letters are replaced by their base letter
+     * before the other non ASCII chars are removed
+     */
+    public String foldToASCII(String s) {
+        begin(s.length());
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 128) {
+                append(c);
+            } else {
+                String fold = asciiFold(c);
+                for (int j = 0; j < fold.length(); j++)
+                    append(fold.charAt(j));
+            }
+        }
+        return end();
+    }
+
+    /**
+     * same as s.replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}" + extra + "]", " ").replaceAll("\\s+", " ").trim()
+     *
+     * @param extra ASCII chars to keep as well, e.g., ":,.;" or {@link #PUNCT}
+     */
+    public String keepAlphanumeric(String s, String extra) {
+        begin(s.length());
+        for (int i = 0, n = s.length(); i < n; ) {
+            int cp = s.codePointAt(i);
+            int count = Character.charCount(cp);
+            if (Character.isAlphabetic(cp) || Character.isDigit(cp) || (cp < 128 && extra.indexOf(cp) >= 0)) {
+                for (int j = 0; j < count; j++)
+                    put(s.charAt(i + j));
+            } else {
+                pendingSpace = true;
+            }
+            i += count;
+        }
+        return end();
+    }
+
+    /**
+     * same as StringUtils.stripAccents(keepAlphanumeric(s, PUNCT)).trim(), which only needs the decomposition of
+     * stripAccents if non ASCII chars are left
+     */
+    public String keepAlphanumericAndPunct(String s) {
+        String kept = keepAlphanumeric(s, PUNCT);
+        for (int i = 0; i < kept.length(); i++) {
+            if (kept.charAt(i) >= 128)
+                return StringUtils.stripAccents(kept).trim();
+        }
+        return kept;
+    }
+
+    /**
+     * same as org.apache.commons.lang.StringEscapeUtils.unescapeJava, without copying strings that have nothing to
+     * unescape
+     */
+    public static String unescapeJava(String s) {
+        if (s == null || s.indexOf('\\') < 0)
+            return s;
+        return StringEscapeUtils.unescapeJava(s);
+    }
+
+    /**
+     * same as org.apache.commons.text.StringEscapeUtils.unescapeHtml4, without copying strings that have nothing to
+     * unescape
+     */
+    public static String unescapeHtml4(String s) {
+        if (s == null || s.indexOf('&') < 0)
+            return s;
+        return org.apache.commons.text.StringEscapeUtils.unescapeHtml4(s);
+    }
+
+    private static String asciiFold(char c) {
+        String fold = asciiFolds[c];
+        if (fold == null) {
+            //surrogates are dropped, no supplementary char decomposes to ASCII
+            String stripped = Character.isSurrogate(c) ? "" : StringUtils.stripAccents(String.valueOf(c));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < stripped.length(); i++) {
+                if (stripped.charAt(i) < 128)
+                    sb.append(stripped.charAt(i));
+            }
+            fold = sb.toString();
+            asciiFolds[c] = fold;
+        }
+        return fold;
+    }
+
+    private void begin(int length) {
+        if (buf.length < length + 1)
+            buf = new char[Math.max(length + 1, buf.length * 2)];
+        len = 0;
+        pendingSpace = false;
+    }
+
+    /**
+     * a run of \s becomes a single space
+     */
+    private void append(char c) {
+        if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r')
+            pendingSpace = true;
+        else
+            put(c);
+    }
+
+    private void put(char c) {
+        if (len + 2 > buf.length)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        if (pendingSpace) {
+            buf[len++] = ' ';
+            pendingSpace = false;
+        }
+        buf[len++] = c;
+    }
+
+    /**
+     * @return the buffer with String.trim() applied
+     */
+    private String end() {
+        int start = 0, stop = len;
+        while (start < stop && buf[start] <= ' ')
+            start++;
+        while (stop > start && buf[stop - 1] <= ' ')
+            stop--;
+        return new String(buf, start, stop - start);
+    }
+}